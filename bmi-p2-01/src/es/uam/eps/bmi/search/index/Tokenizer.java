@@ -0,0 +1,106 @@
+package es.uam.eps.bmi.search.index;
+
+import java.util.Locale;
+
+/**
+ * Tokenizador de un solo recorrido, sin expresiones regulares. Produce
+ * exactamente los mismos terminos que
+ * text.replaceAll("[^A-Za-z0-9 ]", " ").toLowerCase().split(" "): cada caracter
+ * (code point) que no es alfanumerico ASCII separa terminos, entre dos
+ * separadores seguidos queda un termino vacio y los terminos vacios finales se
+ * descartan. Los caracteres del termino se pasan en minusculas en un buffer
+ * reutilizable. No es thread safe.
+ * 
+ * @author Jorge Cifuentes
+ * @author Alejandro Martin
+ *
+ */
+public class Tokenizer {
+
+	/**
+	 * Receptor de los terminos encontrados.
+	 */
+	public interface TermHandler {
+		/**
+		 * @param chars
+		 *            Buffer con el termino, valido solo durante la llamada.
+		 * @param length
+		 *            Longitud del termino, que empieza en la posicion 0.
+		 */
+		public void term(char[] chars, int length);
+	}
+
+	private char[] buffer = new char[64];
+
+	// en locales como el turco toLowerCase no convierte 'I' en 'i'
+	private boolean localeSpecific;
+
+	public Tokenizer() {
+		String lang = Locale.getDefault().getLanguage();
+		this.localeSpecific = lang.equals("tr") || lang.equals("az") || lang.equals("lt");
+	}
+
+	/**
+	 * Recorre el texto entregando cada termino al handler.
+	 * 
+	 * @param text
+	 *            Texto a tokenizar.
+	 * @param handler
+	 *            Receptor de los terminos.
+	 * @return Numero de terminos encontrados.
+	 */
+	public int tokenize(String text, TermHandler handler) {
+		if (this.localeSpecific) {
+			String[] terms = text.replaceAll("[^A-Za-z0-9 ]", " ").toLowerCase().split(" ");
+			for (String term : terms) {
+				if (handler != null)
+					handler.term(term.toCharArray(), term.length());
+			}
+			return terms.length;
+		}
+
+		if (text.isEmpty()) {
+			if (handler != null)
+				handler.term(this.buffer, 0);
+			return 1;
+		}
+
+		int count = 0;
+		int pendingEmpty = 0; // terminos vacios aun no entregados
+		int len = 0;
+		int i = 0;
+		while (i <= text.length()) {
+			int c = i < text.length() ? text.codePointAt(i) : -1;
+			if (isTermChar(c)) {
+				if (len == this.buffer.length) {
+					char[] aux = new char[2 * len];
+					System.arraycopy(this.buffer, 0, aux, 0, len);
+					this.buffer = aux;
+				}
+				this.buffer[len++] = (char) (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+			} else {
+				// fin de un campo: los vacios solo se entregan si les sigue un
+				// termino no vacio
+				if (len == 0) {
+					pendingEmpty++;
+				} else {
+					for (; pendingEmpty > 0; pendingEmpty--, count++) {
+						if (handler != null)
+							handler.term(this.buffer, 0);
+					}
+					if (handler != null)
+						handler.term(this.buffer, len);
+					count++;
+					len = 0;
+				}
+			}
+			i += c > 0xFFFF ? 2 : 1;
+		}
+
+		return count;
+	}
+
+	private static boolean isTermChar(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+	}
+}
@@ -9,16 +9,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Set;
 
 import es.uam.eps.bmi.search.index.AbstractIndexBuilder;
 import es.uam.eps.bmi.search.index.Config;
+import es.uam.eps.bmi.search.index.Tokenizer;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
 import es.uam.eps.bmi.search.index.structure.impl.RAMPostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.TermTable;
 
 /**
  * Representa un Builder base de indices para los indices implementados,
@@ -33,6 +31,14 @@ public abstract class BaseIndexBuilder extends AbstractIndexBuilder {
 	protected int docId = 0;
 	protected String indexFolder;
 	protected LinkedHashMap<String, PostingsList> dictionary;
+	protected Tokenizer tokenizer = new Tokenizer();
+
+	// terminos vistos y, para el documento actual, frecuencia de cada uno y
+	// sus IDs por orden de aparicion
+	private transient TermTable terms = new TermTable();
+	private transient int[] freqs = new int[1024];
+	private transient int[] docTerms = new int[64];
+	private transient int nDocTerms;
 
 	/**
 	 * Guarda el diccionario, de acuerdo a la estrategia que se vaya a seguir.
@@ -87,18 +93,33 @@ public abstract class BaseIndexBuilder extends AbstractIndexBuilder {
 		FileWriter txtHeapLaw = new FileWriter("heapLaw.txt", true);
 		PrintWriter pw = new PrintWriter(txtHeapLaw);
 
-		List<String> terms = Arrays.asList(text.replaceAll("[^A-Za-z0-9 ]", " ").toLowerCase().split(" "));
-
-		Set<String> set = new HashSet<String>(terms);
-		String[] termsUnique = set.toArray(new String[0]);
+		// una sola pasada: frecuencia de cada termino en el documento, por su
+		// ID en la tabla de terminos, sin crear objetos por termino. Los
+		// terminos del documento se agregan al diccionario por orden de
+		// primera aparicion
+		this.nDocTerms = 0;
+		int nTerms = this.tokenizer.tokenize(text, (chars, length) -> {
+			int id = this.terms.add(chars, length);
+			if (id >= this.freqs.length) {
+				this.freqs = Arrays.copyOf(this.freqs, Math.max(2 * this.freqs.length, id + 1));
+			}
+			if (this.freqs[id]++ == 0) {
+				if (this.nDocTerms == this.docTerms.length) {
+					this.docTerms = Arrays.copyOf(this.docTerms, 2 * this.nDocTerms);
+				}
+				this.docTerms[this.nDocTerms++] = id;
+			}
+		});
 
 		// ley de Heap
-		pw.println(terms.size() + "\t" + termsUnique.length);
+		pw.println(nTerms + "\t" + this.nDocTerms);
 		txtHeapLaw.close();
 		pw.close();
 
-		for (String term : termsUnique) {
-			this.putDictionary(term, this.docId, Collections.frequency(terms, term));
+		for (int i = 0; i < this.nDocTerms; i++) {
+			int id = this.docTerms[i];
+			this.putDictionary(this.terms.term(id), this.docId, this.freqs[id]);
+			this.freqs[id] = 0;
 		}
 
 		this.docId++;
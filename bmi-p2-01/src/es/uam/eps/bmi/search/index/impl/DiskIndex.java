@@ -18,7 +18,7 @@ import es.uam.eps.bmi.search.index.structure.impl.RAMPostingsList;
  * @author Alejandro Martin
  *
  */
-public class DiskIndex extends BaseIndex<String, Integer> {
+public class DiskIndex extends BaseIndex<String, Long> {
 
 	private RandomAccessFile pf;
 
@@ -39,7 +39,7 @@ public class DiskIndex extends BaseIndex<String, Integer> {
 		RAMPostingsList pl = new RAMPostingsList();
 
 		// cargamos la postings list de disco a partir del offset
-		int pos = this.dictionary.get(term);
+		long pos = this.dictionary.get(term);
 		pf.seek(pos);
 		pl.stringToPosting(pf.readLine());
 
@@ -65,7 +65,7 @@ public class DiskIndex extends BaseIndex<String, Integer> {
 					throw new IOException("archivo " + Config.dictionaryFileName + " mal formado");
 				}
 
-				this.dictionary.put(data[0], Integer.valueOf(data[1]));
+				this.dictionary.put(data[0], Long.valueOf(data[1]));
 			}
 
 		} catch (IOException e) {
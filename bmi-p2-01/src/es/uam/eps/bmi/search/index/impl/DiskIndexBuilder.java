@@ -33,7 +33,7 @@ public class DiskIndexBuilder extends BaseIndexBuilder {
 		psPosting = new PrintStream(os2, true, "UTF-8");
 
 		// imprimimos los contenidos generados en el dictionary
-		int offset = 0;
+		long offset = 0;
 		for (Entry<String, PostingsList> t : this.dictionary.entrySet()) {
 			psDicc.println(t.getKey() + " " + offset); // termino y su offset
 			offset += 1 + t.getValue().toString().getBytes().length;
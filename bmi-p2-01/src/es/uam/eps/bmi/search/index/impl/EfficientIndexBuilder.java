@@ -1,63 +1,223 @@
 package es.uam.eps.bmi.search.index.impl;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.Map.Entry;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
 
 import es.uam.eps.bmi.search.index.Config;
 import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.structure.Posting;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
 
+/**
+ * Builder de indice en disco SPIMI (single-pass in-memory indexing). Construye
+ * el diccionario en ram hasta agotar un presupuesto de memoria; entonces lo
+ * vuelca ordenado por termino a un archivo parcial (run) y lo vacia. Al
+ * terminar fusiona todos los runs (k-way merge) en el diccionario y el archivo
+ * de postings con el formato que lee DiskIndex.
+ *
+ * @author Jorge Cifuentes
+ * @author Alejandro Martin
+ *
+ */
 public class EfficientIndexBuilder extends BaseIndexBuilder {
 
-	private double startMem;
-	private double usedMem;
-	// int mb = 1024 * 1024;
-	Runtime instance;
+	// estimaciones del coste en heap de cada entrada del diccionario
+	private static final long POSTING_BYTES = 40;
+	private static final long TERM_BYTES = 120;
 
+	private static final String RUN_PREFIX = "/run";
+
+	private long ramBudget;
+	private long usedMem;
+	private List<File> runs;
+
+	/**
+	 * Builder con un presupuesto de un cuarto de la memoria maxima de la JVM.
+	 */
 	public EfficientIndexBuilder() {
-		super();
-		instance = Runtime.getRuntime();
-		int max = 1024;
-		startMem = instance.freeMemory()/1E+9;
-		usedMem = 0;
+		this(Runtime.getRuntime().maxMemory() / 4);
+	}
 
+	/**
+	 * @param ramBudget
+	 *            Bytes (estimados) que puede ocupar el diccionario en ram antes
+	 *            de volcarlo a disco.
+	 */
+	public EfficientIndexBuilder(long ramBudget) {
+		super();
+		this.ramBudget = ramBudget;
+		this.usedMem = 0;
+		this.runs = new ArrayList<File>();
 	}
 
 	@Override
-	protected void serializeIndex(String indexPath) throws IOException {
-		// super.serializeIndex(indexPath);
-
-		Runtime instance = Runtime.getRuntime();
-		int mb = 1024 * 1024;
-		int max = 1024;
-
-		System.out.println(
-				"EfficientIndexBuilder.serializeIndex()usada:" + (instance.totalMemory() - instance.freeMemory()) / mb);
-
+	public void build(String collectionPath, String indexPath) throws IOException {
+		this.usedMem = 0;
+		this.runs.clear();
+		this.dictionary.clear();
+		super.build(collectionPath, indexPath);
 	}
 
 	@Override
 	public void putDictionary(String term, int docID, int freq) {
 
-		System.out.println(term+":");
-		System.out.println("Ram usada PRE insercion: " + this.usedMem+" GB");
+		if (this.dictionary.containsKey(term) == false)
+			this.usedMem += TERM_BYTES + 2 * term.length();
 		super.putDictionary(term, docID, freq);
+		this.usedMem += POSTING_BYTES;
+
+		if (this.usedMem >= this.ramBudget) {
+			try {
+				this.flushRun();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
 
-		this.usedMem += this.startMem - (this.instance.freeMemory()/1E+9);
-		System.out.println("Ram usada POS insercion: " + this.usedMem+" GB");
-		
-		if(this.usedMem>=1){
-			System.exit(0);
-		} // serializar, fusionar
+	/**
+	 * Vuelca el diccionario en memoria a un nuevo run, ordenado por termino.
+	 * Como los docIDs se insertan en orden creciente, cada run cubre un rango
+	 * de docIDs posterior al del run anterior.
+	 *
+	 * @throws IOException
+	 */
+	private void flushRun() throws IOException {
+		if (this.dictionary.isEmpty())
+			return;
+
+		File run = new File(this.indexFolder + RUN_PREFIX + this.runs.size() + ".dat");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+
+		List<String> terms = new ArrayList<String>(this.dictionary.keySet());
+		Collections.sort(terms);
+
+		for (String term : terms) {
+			PostingsList pl = this.dictionary.get(term);
+			out.writeUTF(term);
+			out.writeInt(pl.size());
+			for (Posting p : pl) {
+				out.writeInt(p.getDocID());
+				out.writeInt((int) p.getFreq());
+			}
+		}
+		out.close();
+
+		this.runs.add(run);
+		this.dictionary.clear();
+		this.usedMem = 0;
+	}
 
+	@Override
+	protected void serializeIndex(String indexPath) throws IOException {
+
+		this.flushRun();
+
+		// un lector por run, ordenados por termino actual y, a igualdad de
+		// termino, por orden de run (para mantener los docIDs crecientes)
+		PriorityQueue<RunReader> heap = new PriorityQueue<RunReader>();
+		for (int i = 0; i < this.runs.size(); i++) {
+			RunReader r = new RunReader(this.runs.get(i), i);
+			if (r.next())
+				heap.add(r);
+			else
+				r.close();
+		}
+
+		BufferedWriter dicc = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(indexPath + Config.dictionaryFileName, false), StandardCharsets.UTF_8));
+		BufferedWriter postings = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(indexPath + Config.postingsFileName, false), StandardCharsets.UTF_8));
+
+		long offset = 0;
+		StringBuilder line = new StringBuilder();
+		while (!heap.isEmpty()) {
+			String term = heap.peek().term;
+
+			// concatenamos las postings de todos los runs que contienen term
+			line.setLength(0);
+			while (!heap.isEmpty() && heap.peek().term.equals(term)) {
+				RunReader r = heap.poll();
+				r.appendPostings(line);
+				if (r.next())
+					heap.add(r);
+				else
+					r.close();
+			}
+
+			dicc.write(term + " " + offset);
+			dicc.newLine();
+
+			String pl = line.substring(0, line.length() - 1); // sin espacio final
+			postings.write(pl);
+			postings.write('\n');
+			offset += 1 + pl.getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		dicc.close();
+		postings.close();
+
+		for (File run : this.runs)
+			run.delete();
+		this.runs.clear();
 	}
 
 	@Override
 	protected Index getCoreIndex() throws IOException {
-		// TODO Auto-generated method stub
-		return null;
+		return new DiskIndex(indexFolder);
 	}
 
+	/**
+	 * Lector secuencial de un run, posicionado en su termino actual.
+	 */
+	private static class RunReader implements Comparable<RunReader> {
+		DataInputStream in;
+		int runID;
+		String term;
+		int length;
+
+		RunReader(File run, int runID) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+			this.runID = runID;
+		}
+
+		boolean next() throws IOException {
+			try {
+				this.term = in.readUTF();
+			} catch (EOFException e) {
+				return false;
+			}
+			this.length = in.readInt();
+			return true;
+		}
+
+		void appendPostings(StringBuilder line) throws IOException {
+			for (int i = 0; i < this.length; i++)
+				line.append(in.readInt()).append(' ').append(in.readInt()).append(' ');
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+
+		@Override
+		public int compareTo(RunReader r) {
+			int c = this.term.compareTo(r.term);
+			return c != 0 ? c : this.runID - r.runID;
+		}
+	}
 }
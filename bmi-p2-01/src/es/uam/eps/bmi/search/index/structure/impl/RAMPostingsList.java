@@ -1,44 +1,79 @@
 package es.uam.eps.bmi.search.index.structure.impl;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 import es.uam.eps.bmi.search.index.structure.Posting;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
 
+/**
+ * Lista de postings en ram sobre arrays paralelos de docIDs y frecuencias, que
+ * crecen segun se agregan postings. Los objetos Posting solo se crean al
+ * recorrer la lista.
+ * 
+ * @author Jorge Cifuentes
+ * @author Alejandro Martin
+ *
+ */
 public class RAMPostingsList implements PostingsList, Serializable {
 
-	private static final long serialVersionUID = 1L;
-	private List<Posting> pl;
+	private static final long serialVersionUID = 2L;
+	private int[] docIDs;
+	private int[] freqs;
+	private int size;
 
 	public RAMPostingsList() {
 		super();
-		this.pl = new ArrayList<Posting>();
+		this.docIDs = new int[1];
+		this.freqs = new int[1];
+		this.size = 0;
 	}
 
 	public void add(int docID, int freq) {
-		Posting p = new Posting(docID, freq);
-		pl.add(p);
+		if (this.size == this.docIDs.length) {
+			int capacity = this.size + (this.size >> 1) + 1;
+			this.docIDs = Arrays.copyOf(this.docIDs, capacity);
+			this.freqs = Arrays.copyOf(this.freqs, capacity);
+		}
+		this.docIDs[this.size] = docID;
+		this.freqs[this.size] = freq;
+		this.size++;
 	}
 
 	@Override
 	public Iterator<Posting> iterator() {
-		return this.pl.iterator();
+		return new Iterator<Posting>() {
+			int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < size;
+			}
+
+			@Override
+			public Posting next() {
+				if (i >= size)
+					throw new NoSuchElementException();
+				Posting p = new Posting(docIDs[i], freqs[i]);
+				i++;
+				return p;
+			}
+		};
 	}
 
 	@Override
 	public int size() {
-		return this.pl.size();
+		return this.size;
 	}
 
 	@Override
 	public String toString() {
-		String s = "";
+		StringBuilder s = new StringBuilder();
 
-		for (Posting p : pl) {
-			s += p.getDocID() + " " + p.getFreq() + " ";
+		for (int i = 0; i < this.size; i++) {
+			s.append(this.docIDs[i]).append(' ').append(this.freqs[i]).append(' ');
 		}
 
 		return s.substring(0, s.length() - 1); // delete trailing space
@@ -0,0 +1,105 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.util.Arrays;
+
+/**
+ * Tabla de terminos con IDs densos (0, 1, 2... por orden de aparicion). Los
+ * terminos se buscan por direccionamiento abierto (sondeo lineal) comparando
+ * sus caracteres con los del String de cada ID, de forma que buscar un
+ * termino que ya esta, dado en un buffer de caracteres, no crea ningun objeto.
+ * El String de cada termino se crea una sola vez, al agregarlo, y es la unica
+ * copia de sus caracteres. No es thread safe.
+ *
+ * @author Jorge Cifuentes
+ * @author Alejandro Martin
+ *
+ */
+public class TermTable {
+
+	private int[] hashes = new int[16];
+	private String[] terms = new String[16];
+
+	// termID + 1 en cada hueco, 0 si esta vacio; como mucho medio lleno
+	private int[] slots = new int[32];
+	private int size = 0;
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param id
+	 *            ID del termino.
+	 * @return El termino.
+	 */
+	public String term(int id) {
+		return this.terms[id];
+	}
+
+	/**
+	 * Busca un termino, agregandolo si es nuevo.
+	 *
+	 * @param chars
+	 *            Buffer con el termino, que empieza en la posicion 0.
+	 * @param length
+	 *            Longitud del termino.
+	 * @return ID del termino.
+	 */
+	public int add(char[] chars, int length) {
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + chars[i];
+		}
+
+		int mask = this.slots.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (this.slots[slot] != 0) {
+			int id = this.slots[slot] - 1;
+			if (this.hashes[id] == hash && equals(id, chars, length)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// termino nuevo
+		int id = this.size;
+		if (id == this.hashes.length) {
+			this.hashes = Arrays.copyOf(this.hashes, 2 * id);
+			this.terms = Arrays.copyOf(this.terms, 2 * id);
+		}
+		this.hashes[id] = hash;
+		this.terms[id] = new String(chars, 0, length);
+		this.slots[slot] = id + 1;
+		this.size++;
+
+		if (2 * this.size > this.slots.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private boolean equals(int id, char[] chars, int length) {
+		String term = this.terms[id];
+		if (term.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (term.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		this.slots = new int[2 * this.slots.length];
+		int mask = this.slots.length - 1;
+		for (int id = 0; id < this.size; id++) {
+			int slot = (this.hashes[id] ^ (this.hashes[id] >>> 16)) & mask;
+			while (this.slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			this.slots[slot] = id + 1;
+		}
+	}
+}
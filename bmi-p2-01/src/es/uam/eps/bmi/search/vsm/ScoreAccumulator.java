@@ -0,0 +1,135 @@
+package es.uam.eps.bmi.search.vsm;
+
+import java.util.Arrays;
+
+/**
+ * Score accumulators of a term-at-a-time search, one per thread and reused
+ * across queries, so that adding a posting allocates nothing. Scores are kept
+ * in an array over all the docIDs, along with the list of the documents
+ * touched, which are the only ones cleared for the next query; when the query
+ * can only touch a few documents, in an open-addressing hash table instead.
+ * Scores must be positive: a document without a score is one at 0.
+ *
+ * @author pablo
+ */
+public class ScoreAccumulator {
+    // Sparse below one candidate document in this many
+    static final int SPARSE_RATIO = 64;
+    static final int EMPTY = -1;
+
+    static final ThreadLocal<ScoreAccumulator> accumulators = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+    boolean sparse;
+    double scores[] = new double[0];
+    // Hash table, by linear probing on docIDs, in the first mask + 1 entries of the arrays
+    int keys[] = new int[0];
+    double values[] = new double[0];
+    int mask;
+    int touched[] = new int[64];
+    int size;
+
+    ScoreAccumulator() {
+    }
+
+    // The accumulator of the current thread, cleared, for at most maxDocs documents of an index of numDocs
+    public static ScoreAccumulator get(int numDocs, long maxDocs) {
+        ScoreAccumulator acc = accumulators.get();
+        acc.reset(numDocs, maxDocs);
+        return acc;
+    }
+
+    // Also clears what a query left, if it was interrupted before clear()
+    void reset(int numDocs, long maxDocs) {
+        clear();
+        sparse = maxDocs * SPARSE_RATIO < numDocs;
+        if (sparse) {
+            int capacity = Integer.highestOneBit((int) Math.max(8, 2 * maxDocs - 1)) << 1;
+            if (keys.length < capacity) {
+                keys = new int[capacity];
+                values = new double[capacity];
+                Arrays.fill(keys, EMPTY);
+            }
+            mask = capacity - 1;
+        }
+        else if (scores.length < numDocs) scores = new double[numDocs];
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        // Removing entries one by one would break the probe sequences of the others, and the table is small
+        if (sparse) {
+            Arrays.fill(keys, 0, mask + 1, EMPTY);
+            Arrays.fill(values, 0, mask + 1, 0);
+        }
+        else for (int i = 0; i < size; i++) scores[touched[i]] = 0;
+        size = 0;
+    }
+
+    // Returns the new score of the document
+    public double add(int docID, double score) {
+        if (!sparse) {
+            if (scores[docID] == 0) touch(docID);
+            return scores[docID] += score;
+        }
+        int slot = slot(docID);
+        if (keys[slot] == EMPTY) {
+            if (2 * (size + 1) > mask + 1) {
+                grow();
+                slot = slot(docID);
+            }
+            keys[slot] = docID;
+            touch(docID);
+        }
+        return values[slot] += score;
+    }
+
+    public double get(int docID) {
+        if (!sparse) return scores[docID];
+        int slot = slot(docID);
+        return keys[slot] == EMPTY? 0 : values[slot];
+    }
+
+    public boolean contains(int docID) {
+        return get(docID) != 0;
+    }
+
+    // Number of documents with a score
+    public int size() {
+        return size;
+    }
+
+    // The documents with a score, sorted, as the first size() entries of the array, which is not a copy
+    public int[] docIDs() {
+        Arrays.sort(touched, 0, size);
+        return touched;
+    }
+
+    void touch(int docID) {
+        if (size == touched.length) touched = Arrays.copyOf(touched, 2 * size);
+        touched[size++] = docID;
+    }
+
+    // Slot of the document, or the empty one where it would go
+    int slot(int docID) {
+        int hash = docID * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != docID) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    void grow() {
+        int oldKeys[] = keys;
+        double oldValues[] = values;
+        int oldCapacity = mask + 1;
+        keys = new int[2 * oldCapacity];
+        values = new double[keys.length];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = slot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package es.uam.eps.bmi.search.vsm;
 
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Iterator;
 
 import es.uam.eps.bmi.search.index.Index;
@@ -29,16 +27,25 @@ public class TermBasedVSMEngine extends AbstractVSMEngine {
 
 		String[] terms = query.split(" ");
 
-		// en acum se iran guardando la suma del tfidf para cada doc, por lo que
-		// al final
-		// tendra toda la parte de arriba del coseno de similitud
-		Hashtable<Integer, Double> acum = new Hashtable<>();
 		RankingImpl ranking = new RankingImpl(index, cutoff);
 
 		// obtenemos cada lista de postings (cada termino qi tiene una)
+		PostingsList[] listas = new PostingsList[terms.length];
+		long maxDocs = 0;
 		for (int i = 0; i < terms.length; i++) {
+			listas[i] = this.index.getPostings(terms[i]);
+			maxDocs += listas[i].size();
+		}
 
-			PostingsList pl = this.index.getPostings(terms[i]);
+		// en acum se iran guardando la suma del tfidf para cada doc, por lo que
+		// al final
+		// tendra toda la parte de arriba del coseno de similitud. Es el del
+		// hilo, que se reutiliza entre consultas sin crear objetos por posting
+		ScoreAccumulator acum = ScoreAccumulator.get(this.index.numDocs(), maxDocs);
+
+		for (int i = 0; i < terms.length; i++) {
+
+			PostingsList pl = listas[i];
 
 			Iterator<Posting> iter = pl.iterator();
 			while (iter.hasNext()) {
@@ -48,24 +55,19 @@ public class TermBasedVSMEngine extends AbstractVSMEngine {
 
 				double tfidf = tfidf(p.getFreq(), pl.size(), this.index.numDocs());
 
-				int docid = p.getDocID();
-
-				if (acum.containsKey(docid)) {
-					acum.put(docid, acum.get(docid) + tfidf);
-				} else {
-					acum.put(docid, tfidf);
-				}
+				acum.add(p.getDocID(), tfidf);
 			}
 		}
 
 		// dividimos cada valor entre el modulo del documento
-		Enumeration<Integer> e = acum.keys();
-		while (e.hasMoreElements()) {
-			int key = (int) e.nextElement();
+		int[] docs = acum.docIDs();
+		for (int i = 0; i < acum.size(); i++) {
+			int key = docs[i];
 
-			Double score = acum.get(key) / this.index.getDocNorm(key);
+			double score = acum.get(key) / this.index.getDocNorm(key);
 			ranking.add(key, score);
 		}
+		acum.clear();
 
 		return ranking;
 	}
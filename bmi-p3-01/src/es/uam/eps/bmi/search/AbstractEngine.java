@@ -2,6 +2,7 @@ package es.uam.eps.bmi.search;
 
 import es.uam.eps.bmi.search.index.DocumentMap;
 import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.Tokenizer;
 
 /**
  *
@@ -19,6 +20,6 @@ public abstract class AbstractEngine implements SearchEngine {
     }
 	
     public String[] parse (String query) {
-        return query.split("\\P{Alpha}+");
+        return new Tokenizer(false).split(query);
     }
 }
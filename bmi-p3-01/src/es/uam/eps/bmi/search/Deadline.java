@@ -0,0 +1,57 @@
+package es.uam.eps.bmi.search;
+
+/**
+ * Budget of a query, in time from its creation and/or number of postings
+ * read. Engines that take one stop when it runs out and return the ranking
+ * they have so far, flagged as approximate (see SearchRanking.isApproximate);
+ * the others ignore it. A deadline is meant for one query in one thread.
+ *
+ * @author pablo
+ */
+public class Deadline {
+    // Postings read between clock checks
+    static final int CHECK_INTERVAL = 256;
+
+    boolean timed;
+    long end;
+    long maxPostings;
+    long postings;
+    long nextCheck = CHECK_INTERVAL;
+    boolean expired;
+
+    // A negative limit means none
+    public Deadline(long millis, long maxPostings) {
+        timed = millis >= 0;
+        end = System.nanoTime() + millis * 1000000;
+        this.maxPostings = maxPostings < 0? Long.MAX_VALUE : maxPostings;
+    }
+
+    public static Deadline millis(long millis) {
+        return new Deadline(millis, -1);
+    }
+
+    public static Deadline postings(long n) {
+        return new Deadline(-1, n);
+    }
+
+    // Counts postings read, returning whether the budget has run out
+    public boolean consume(long n) {
+        postings += n;
+        if (postings >= maxPostings) expired = true;
+        else if (timed && postings >= nextCheck) {
+            nextCheck = postings + CHECK_INTERVAL;
+            expired |= System.nanoTime() - end >= 0;
+        }
+        return expired;
+    }
+
+    // Checks the clock now, for engines that do much work between postings
+    public boolean expired() {
+        if (timed && !expired) expired = System.nanoTime() - end >= 0;
+        return expired;
+    }
+
+    public long postingsRead() {
+        return postings;
+    }
+}
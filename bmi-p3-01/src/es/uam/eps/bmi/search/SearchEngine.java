@@ -10,5 +10,11 @@ import java.io.IOException;
  */
 public interface SearchEngine {
     public SearchRanking search(String query, int cutoff) throws IOException;
+
+    // Engines that cannot stop early run the whole query
+    public default SearchRanking search(String query, int cutoff, Deadline deadline) throws IOException {
+        return search(query, cutoff);
+    }
+
     public DocumentMap getDocMap();
 }
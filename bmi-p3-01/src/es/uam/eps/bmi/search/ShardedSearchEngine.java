@@ -0,0 +1,82 @@
+package es.uam.eps.bmi.search;
+
+import es.uam.eps.bmi.search.index.DocumentMap;
+import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.Tokenizer;
+import es.uam.eps.bmi.search.index.impl.ShardedIndex;
+import es.uam.eps.bmi.search.ranking.SearchRanking;
+import es.uam.eps.bmi.search.ranking.impl.RankingImpl;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Scatter-gather search over a sharded index: an engine of the given type
+ * (e.g. TermBasedVSMEngine::new) searches each shard in a thread of a pool,
+ * and their top results are merged into one ranking. The document frequencies
+ * of the query terms are computed once for the whole index and shared by the
+ * shards, so scores are those of the same engine over a single index.
+ *
+ * @author pablo
+ */
+public class ShardedSearchEngine implements SearchEngine {
+    ShardedIndex index;
+    Function<Index,SearchEngine> engines;
+    ExecutorService pool;
+
+    public ShardedSearchEngine(ShardedIndex idx, Function<Index,SearchEngine> e) {
+        index = idx;
+        engines = e;
+        pool = Executors.newFixedThreadPool(Math.max(1, index.numShards() - 1), r -> {
+            Thread t = new Thread(r, "shard-search");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public SearchRanking search(final String query, final int cutoff) throws IOException {
+        Map<String,Long> docFreqs = new HashMap<String,Long>();
+        for (String term : new Tokenizer(false).split(query))
+            if (!docFreqs.containsKey(term)) docFreqs.put(term, index.getDocFreq(term));
+
+        List<Future<SearchRanking>> rankings = new ArrayList<Future<SearchRanking>>();
+        for (int i = 1; i < index.numShards(); i++) {
+            final SearchEngine engine = engines.apply(index.shard(i, docFreqs));
+            rankings.add(pool.submit(new Callable<SearchRanking>() {
+                public SearchRanking call() throws IOException {
+                    return engine.search(query, cutoff);
+                }
+            }));
+        }
+        // The calling thread searches the first shard meanwhile
+        RankingImpl ranking = new RankingImpl(index, cutoff);
+        ranking.merge(engines.apply(index.shard(0, docFreqs)).search(query, cutoff), 0);
+        try {
+            for (int i = 1; i < index.numShards(); i++)
+                ranking.merge(rankings.get(i - 1).get(), index.base(i));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause());
+        }
+        return ranking;
+    }
+
+    public DocumentMap getDocMap() {
+        return index;
+    }
+
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,73 @@
+package es.uam.eps.bmi.search.distributed;
+
+import es.uam.eps.bmi.search.index.AbstractIndexBuilder;
+import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.structure.EditablePostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Shard of a collection with the statistics of the whole collection: its
+ * number of documents and document frequencies, and document norms
+ * recomputed with them. docIDs and postings are those of the shard.
+ *
+ * @author pablo
+ */
+class GlobalStatsIndex implements Index {
+    Index shard;
+    int numDocs;
+    Map<String,Long> docFreqs;
+    double norms[];
+
+    GlobalStatsIndex(Index s, ShardProtocol.Stats stats) throws IOException {
+        shard = s;
+        numDocs = stats.numDocs;
+        docFreqs = stats.docFreqs;
+        norms = new double[shard.numDocs()];
+        for (String term : shard.getAllTerms())
+            AbstractIndexBuilder.addWeights(norms, shard.getPostings(term), getDocFreq(term), numDocs);
+        for (int docID = 0; docID < norms.length; docID++)
+            norms[docID] = Math.sqrt(norms[docID]);
+    }
+
+    public int numDocs() {
+        return numDocs;
+    }
+
+    // Terms of the collection may be missing from the shard
+    public PostingsList getPostings(String term) throws IOException {
+        PostingsList postings = shard.getPostings(term);
+        return postings != null? postings : new EditablePostingsList();
+    }
+
+    public Collection<String> getAllTerms() throws IOException {
+        return shard.getAllTerms();
+    }
+
+    public long getTotalFreq(String term) throws IOException {
+        return shard.getTotalFreq(term);
+    }
+
+    public long getDocFreq(String term) throws IOException {
+        Long docFreq = docFreqs.get(term);
+        return docFreq != null? docFreq : 0;
+    }
+
+    public String getFolder() throws IOException {
+        return shard.getFolder();
+    }
+
+    public String getDocPath(int docID) throws IOException {
+        return shard.getDocPath(docID);
+    }
+
+    public double getDocNorm(int docID) throws IOException {
+        return norms[docID];
+    }
+
+    public boolean isDeleted(int docID) {
+        return shard.isDeleted(docID);
+    }
+}
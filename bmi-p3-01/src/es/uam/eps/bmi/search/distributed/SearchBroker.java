@@ -0,0 +1,351 @@
+package es.uam.eps.bmi.search.distributed;
+
+import es.uam.eps.bmi.search.SearchEngine;
+import es.uam.eps.bmi.search.index.DocumentMap;
+import es.uam.eps.bmi.search.ranking.SearchRanking;
+import es.uam.eps.bmi.search.ranking.SearchRankingDoc;
+import es.uam.eps.bmi.search.ranking.impl.RankingImpl;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Search engine over shard servers, each shard served by one or more
+ * replicas. Shards hold consecutive docID ranges in the order they are given.
+ * On startup the broker collects the statistics of every shard and sends
+ * their sum to all the replicas, so that they score documents as a single
+ * index of the whole collection would; replicas that are down by then are
+ * not used.
+ *
+ * A query is sent to the first replica of every shard at once. If a replica
+ * has not answered after hedgeDelay milliseconds the request is also sent to
+ * the next one (at once if it fails), and the first answer is used. Shards
+ * that have not answered within timeout milliseconds are left out of the
+ * ranking, which then reports them in failedShards(). The statistics exchange
+ * has a timeout of its own, much longer by default, since replicas only
+ * answer GLOBAL_STATS once they have recomputed the norms of their shard.
+ *
+ * Run as: SearchBroker host:port[,host:port...] ... (one argument per shard,
+ * with its replicas), then type queries.
+ *
+ * @author pablo
+ */
+public class SearchBroker implements SearchEngine, DocumentMap {
+    // Default timeout of the statistics exchange
+    public static final int STARTUP_TIMEOUT = 600000;
+
+    InetSocketAddress replicas[][];
+    int bases[];
+    int numDocs;
+    byte engine = ShardProtocol.TERM_BASED;
+    int timeout = 1000;
+    int hedgeDelay = 50;
+
+    ExecutorService requests = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "broker-request");
+        t.setDaemon(true);
+        return t;
+    });
+    ScheduledExecutorService hedges = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "broker-hedge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SearchBroker(InetSocketAddress r[][]) throws IOException {
+        this(r, STARTUP_TIMEOUT);
+    }
+
+    // With the timeout of the statistics exchange, in milliseconds
+    public SearchBroker(InetSocketAddress r[][], int startupTimeout) throws IOException {
+        replicas = r;
+        exchangeStats(startupTimeout);
+    }
+
+    public void setEngine(byte e) {
+        engine = e;
+    }
+
+    public void setTimeout(int millis) {
+        timeout = millis;
+    }
+
+    public void setHedgeDelay(int millis) {
+        hedgeDelay = millis;
+    }
+
+    // Sums the statistics of the shards and sends them to every replica; replicas that are down are left out
+    void exchangeStats(int startupTimeout) throws IOException {
+        byte statsRequest[] = request(out -> out.writeByte(ShardProtocol.STATS));
+        bases = new int[replicas.length];
+        numDocs = 0;
+        Map<String,Long> docFreqs = new HashMap<String,Long>();
+        for (int i = 0; i < replicas.length; i++) {
+            ShardProtocol.Stats stats = get(hedgedCall(replicas[i], statsRequest, ShardProtocol.Stats::read, startupTimeout));
+            bases[i] = numDocs;
+            numDocs += stats.numDocs;
+            for (Map.Entry<String,Long> e : stats.docFreqs.entrySet())
+                docFreqs.merge(e.getKey(), e.getValue(), Long::sum);
+        }
+        ShardProtocol.Stats global = new ShardProtocol.Stats(numDocs, docFreqs);
+        byte globalRequest[] = request(out -> {
+            out.writeByte(ShardProtocol.GLOBAL_STATS);
+            global.write(out);
+        });
+        for (int i = 0; i < replicas.length; i++) {
+            List<InetSocketAddress> live = new ArrayList<InetSocketAddress>();
+            IOException failure = null;
+            for (InetSocketAddress replica : replicas[i])
+                try {
+                    call(replica, globalRequest, in -> null, startupTimeout);
+                    live.add(replica);
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            if (live.isEmpty()) throw failure;
+            replicas[i] = live.toArray(new InetSocketAddress[live.size()]);
+        }
+    }
+
+    public SearchRanking search(String query, int cutoff) throws IOException {
+        byte request[] = request(out -> {
+            out.writeByte(ShardProtocol.SEARCH);
+            out.writeByte(engine);
+            out.writeUTF(query);
+            out.writeInt(cutoff);
+        });
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        List<CompletableFuture<ShardProtocol.Results>> calls = new ArrayList<CompletableFuture<ShardProtocol.Results>>();
+        for (int i = 0; i < replicas.length; i++) calls.add(hedgedCall(replicas[i], request, ShardProtocol.Results::read, timeout));
+
+        BrokerRanking ranking = new BrokerRanking(new ResultPaths(), cutoff);
+        IOException failure = null;
+        for (int i = 0; i < replicas.length; i++) {
+            try {
+                ShardProtocol.Results results = calls.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                ranking.add(results, bases[i]);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                failure = ex.getCause() instanceof IOException? (IOException) ex.getCause() : new IOException(ex.getCause());
+                ranking.failedShards++;
+            } catch (TimeoutException ex) {
+                ranking.failedShards++;
+            }
+        }
+        if (ranking.failedShards == replicas.length && failure != null) throw failure;
+        return ranking;
+    }
+
+    // Sends the request to the replicas in turn, hedging slow ones; the first answer completes the result
+    <T> CompletableFuture<T> hedgedCall(InetSocketAddress shard[], byte request[], ShardProtocol.Reader<T> reader, int millis) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        AtomicBoolean sent[] = new AtomicBoolean[shard.length];
+        for (int k = 0; k < sent.length; k++) sent[k] = new AtomicBoolean();
+        AtomicInteger failed = new AtomicInteger();
+        class Attempt implements Runnable {
+            int replica;
+
+            Attempt(int k) {
+                replica = k;
+            }
+
+            public void run() {
+                if (result.isDone() || !sent[replica].compareAndSet(false, true)) return;
+                requests.execute(() -> {
+                    try {
+                        result.complete(call(shard[replica], request, reader, millis));
+                    } catch (IOException ex) {
+                        if (failed.incrementAndGet() == shard.length) result.completeExceptionally(ex);
+                        else for (int k = replica + 1; k < shard.length; k++)
+                            if (!sent[k].get()) {
+                                new Attempt(k).run();
+                                break;
+                            }
+                    }
+                });
+            }
+        }
+        new Attempt(0).run();
+        for (int k = 1; k < shard.length; k++)
+            hedges.schedule(new Attempt(k), (long) hedgeDelay * k, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    // With a connect and read timeout of millis
+    <T> T call(InetSocketAddress address, byte request[], ShardProtocol.Reader<T> reader, int millis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(address, millis);
+            socket.setSoTimeout(millis);
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.write(request);
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readByte() != ShardProtocol.OK) throw new IOException(address + ": " + in.readUTF());
+            return reader.read(in);
+        } finally {
+            socket.close();
+        }
+    }
+
+    interface Writer {
+        public void write(DataOutputStream out) throws IOException;
+    }
+
+    static byte[] request(Writer writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writer.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public DocumentMap getDocMap() {
+        return this;
+    }
+
+    public int numDocs() {
+        return numDocs;
+    }
+
+    public String getDocPath(int docID) throws IOException {
+        return document(docID).path;
+    }
+
+    public double getDocNorm(int docID) throws IOException {
+        return document(docID).norm;
+    }
+
+    Document document(int docID) throws IOException {
+        int i = Arrays.binarySearch(bases, docID);
+        if (i < 0) i = -i - 2;
+        while (i + 1 < bases.length && bases[i + 1] == docID) i++;
+        int localDocID = docID - bases[i];
+        byte request[] = request(out -> {
+            out.writeByte(ShardProtocol.DOCUMENT);
+            out.writeInt(localDocID);
+        });
+        return get(hedgedCall(replicas[i], request, in -> new Document(in.readUTF(), in.readDouble()), timeout));
+    }
+
+    static <T> T get(CompletableFuture<T> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    public void close() {
+        requests.shutdown();
+        hedges.shutdown();
+    }
+
+    static class Document {
+        String path;
+        double norm;
+
+        Document(String p, double n) {
+            path = p;
+            norm = n;
+        }
+    }
+
+    // Paths sent along with the results, so that rankings need not ask for them
+    class ResultPaths implements DocumentMap {
+        Map<Integer,String> paths = new HashMap<Integer,String>();
+
+        public String getDocPath(int docID) throws IOException {
+            String path = paths.get(docID);
+            return path != null? path : SearchBroker.this.getDocPath(docID);
+        }
+
+        public double getDocNorm(int docID) throws IOException {
+            return SearchBroker.this.getDocNorm(docID);
+        }
+    }
+
+    // Top results of the shards
+    public static class BrokerRanking extends RankingImpl {
+        ResultPaths paths;
+        int nResults;
+        int failedShards;
+
+        BrokerRanking(ResultPaths p, int cutoff) {
+            super(p, cutoff);
+            paths = p;
+        }
+
+        void add(ShardProtocol.Results results, int base) {
+            for (int i = 0; i < results.docIDs.length; i++) {
+                paths.paths.put(base + results.docIDs[i], results.paths[i]);
+                add(base + results.docIDs[i], results.scores[i]);
+            }
+            nResults += results.nResults;
+        }
+
+        public int nResults() {
+            return nResults;
+        }
+
+        // Shards left out of the ranking because they failed or timed out
+        public int failedShards() {
+            return failedShards;
+        }
+
+        public boolean isApproximate() {
+            return failedShards > 0 || super.isApproximate();
+        }
+    }
+
+    public static void main(String a[]) throws IOException {
+        InetSocketAddress shards[][] = new InetSocketAddress[a.length][];
+        for (int i = 0; i < a.length; i++) {
+            String replicas[] = a[i].split(",");
+            shards[i] = new InetSocketAddress[replicas.length];
+            for (int k = 0; k < replicas.length; k++) {
+                String hostPort[] = replicas[k].split(":");
+                shards[i][k] = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+            }
+        }
+        SearchBroker broker = new SearchBroker(shards);
+        System.out.println("Connected to " + a.length + " shards (" + broker.numDocs() + " documents)");
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String query;
+        while ((query = in.readLine()) != null && !query.isEmpty()) {
+            BrokerRanking ranking = (BrokerRanking) broker.search(query, 10);
+            for (SearchRankingDoc doc : ranking)
+                System.out.println(doc.getScore() + "\t" + doc.getPath());
+            if (ranking.failedShards() > 0) System.out.println("(" + ranking.failedShards() + " shards did not answer)");
+        }
+        broker.close();
+    }
+}
@@ -0,0 +1,104 @@
+package es.uam.eps.bmi.search.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary protocol between a search broker and its shard servers, one request
+ * per connection. A request is an op code followed by its arguments; every
+ * response starts with a status byte, followed by an error message or the
+ * result.
+ *
+ * STATS: response int number of documents, int number of terms and, for
+ * each term, its UTF name and long document frequency in the shard.
+ * GLOBAL_STATS: the same statistics for the whole collection, which the
+ * shard uses from then on; empty response.
+ * SEARCH: byte engine, UTF query, int cutoff; response int number of
+ * results, int number of top results and, for each one, its int local docID,
+ * double score and UTF path.
+ * DOCUMENT: int local docID; response UTF path and double norm.
+ *
+ * @author pablo
+ */
+public class ShardProtocol {
+    public static final byte STATS = 1;
+    public static final byte GLOBAL_STATS = 2;
+    public static final byte SEARCH = 3;
+    public static final byte DOCUMENT = 4;
+
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    public static final byte TERM_BASED = 0;
+    public static final byte DOC_BASED = 1;
+    public static final byte PROXIMAL = 2;
+
+    public interface Reader<T> {
+        public T read(DataInputStream in) throws IOException;
+    }
+
+    public static class Stats {
+        int numDocs;
+        Map<String,Long> docFreqs;
+
+        Stats(int n, Map<String,Long> df) {
+            numDocs = n;
+            docFreqs = df;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(numDocs);
+            out.writeInt(docFreqs.size());
+            for (Map.Entry<String,Long> e : docFreqs.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue());
+            }
+        }
+
+        static Stats read(DataInputStream in) throws IOException {
+            int numDocs = in.readInt();
+            int nTerms = in.readInt();
+            Map<String,Long> docFreqs = new HashMap<String,Long>(2 * nTerms);
+            for (int i = 0; i < nTerms; i++) docFreqs.put(in.readUTF(), in.readLong());
+            return new Stats(numDocs, docFreqs);
+        }
+    }
+
+    public static class Results {
+        int nResults;
+        int docIDs[];
+        double scores[];
+        String paths[];
+
+        Results(int total, int n) {
+            nResults = total;
+            docIDs = new int[n];
+            scores = new double[n];
+            paths = new String[n];
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(nResults);
+            out.writeInt(docIDs.length);
+            for (int i = 0; i < docIDs.length; i++) {
+                out.writeInt(docIDs[i]);
+                out.writeDouble(scores[i]);
+                out.writeUTF(paths[i]);
+            }
+        }
+
+        static Results read(DataInputStream in) throws IOException {
+            int total = in.readInt();
+            Results results = new Results(total, in.readInt());
+            for (int i = 0; i < results.docIDs.length; i++) {
+                results.docIDs[i] = in.readInt();
+                results.scores[i] = in.readDouble();
+                results.paths[i] = in.readUTF();
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package es.uam.eps.bmi.search.distributed;
+
+import es.uam.eps.bmi.search.SearchEngine;
+import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.impl.DiskIndex;
+import es.uam.eps.bmi.search.index.impl.PositionalIndexImpl;
+import es.uam.eps.bmi.search.proximal.ProximalEngine;
+import es.uam.eps.bmi.search.ranking.SearchRanking;
+import es.uam.eps.bmi.search.ranking.SearchRankingDoc;
+import es.uam.eps.bmi.search.ranking.impl.RankingImpl;
+import es.uam.eps.bmi.search.vsm.DocBasedVSMEngine;
+import es.uam.eps.bmi.search.vsm.TermBasedVSMEngine;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves searches over one shard of a collection (see ShardProtocol), each
+ * connection in its own thread. Searches and documents are only served once a
+ * broker has sent the statistics of the whole collection: until then they
+ * get an error, so that a replica restarted after the broker's statistics
+ * exchange is skipped by the broker rather than scoring with the statistics
+ * of its shard.
+ *
+ * Run as: ShardServer shardFolder disk|positional port
+ *
+ * @author pablo
+ */
+public class ShardServer {
+    Index shard;
+    // With the statistics of the whole collection, null until a broker sends them
+    volatile Index index;
+    ServerSocket server;
+    ExecutorService workers = Executors.newCachedThreadPool();
+
+    public ShardServer(Index s, int port) throws IOException {
+        shard = s;
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException ex) {
+                if (server.isClosed()) return;
+                throw ex;
+            }
+            workers.execute(() -> handle(socket));
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        workers.shutdown();
+    }
+
+    void handle(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // Results are computed before the status is written
+            try {
+                byte op = in.readByte();
+                switch (op) {
+                    case ShardProtocol.STATS: stats().write(ok(out)); break;
+                    case ShardProtocol.GLOBAL_STATS: setStats(ShardProtocol.Stats.read(in)); ok(out); break;
+                    case ShardProtocol.SEARCH: search(in.readByte(), in.readUTF(), in.readInt()).write(ok(out)); break;
+                    case ShardProtocol.DOCUMENT:
+                        int docID = in.readInt();
+                        String path = globalIndex().getDocPath(docID);
+                        double norm = globalIndex().getDocNorm(docID);
+                        ok(out).writeUTF(path);
+                        out.writeDouble(norm);
+                        break;
+                    default: throw new IOException("Unknown request " + op);
+                }
+            } catch (Exception ex) {
+                out.writeByte(ShardProtocol.ERROR);
+                out.writeUTF(String.valueOf(ex));
+            }
+            out.flush();
+        } catch (IOException ex) {
+            // The broker gave up on the request
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    static DataOutputStream ok(DataOutputStream out) throws IOException {
+        out.writeByte(ShardProtocol.OK);
+        return out;
+    }
+
+    ShardProtocol.Stats stats() throws IOException {
+        Map<String,Long> docFreqs = new HashMap<String,Long>();
+        for (String term : shard.getAllTerms()) docFreqs.put(term, shard.getDocFreq(term));
+        return new ShardProtocol.Stats(shard.numDocs(), docFreqs);
+    }
+
+    Index globalIndex() throws IOException {
+        Index i = index;
+        if (i == null) throw new IOException("No collection statistics from a broker yet");
+        return i;
+    }
+
+    void setStats(ShardProtocol.Stats stats) throws IOException {
+        index = new GlobalStatsIndex(shard, stats);
+    }
+
+    ShardProtocol.Results search(byte engine, String query, int cutoff) throws IOException {
+        SearchRanking ranking = engine(engine, globalIndex()).search(query, cutoff);
+        ShardProtocol.Results results = new ShardProtocol.Results(
+                ranking instanceof RankingImpl? ((RankingImpl) ranking).nResults() : ranking.size(), ranking.size());
+        int i = 0;
+        for (SearchRankingDoc doc : ranking) {
+            results.docIDs[i] = doc.getDocID();
+            results.scores[i] = doc.getScore();
+            results.paths[i++] = doc.getPath();
+        }
+        return results;
+    }
+
+    static SearchEngine engine(byte engine, Index index) throws IOException {
+        switch (engine) {
+            case ShardProtocol.TERM_BASED: return new TermBasedVSMEngine(index);
+            case ShardProtocol.DOC_BASED: return new DocBasedVSMEngine(index);
+            case ShardProtocol.PROXIMAL: return new ProximalEngine(index);
+            default: throw new IOException("Unknown engine " + engine);
+        }
+    }
+
+    public static void main(String a[]) throws IOException {
+        Index shard = a[1].equals("positional")? new PositionalIndexImpl(a[0]) : new DiskIndex(a[0]);
+        ShardServer server = new ShardServer(shard, Integer.parseInt(a[2]));
+        System.out.println("Serving " + a[0] + " (" + shard.numDocs() + " documents) on port " + server.getPort());
+        server.serve();
+    }
+}
@@ -1,9 +1,8 @@
 package es.uam.eps.bmi.search.index;
 
+import es.uam.eps.bmi.search.index.structure.impl.DocNormsFile;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Scanner;
 
 /**
  *
@@ -11,7 +10,7 @@ import java.util.Scanner;
  */
 public abstract class AbstractIndex implements Index {
     protected String indexFolder;
-    protected double docNorms[];
+    protected DocNormsFile docNorms;
     
     public AbstractIndex()  {}
     
@@ -24,16 +23,12 @@ public abstract class AbstractIndex implements Index {
     }
 
     public double getDocNorm(int docID) throws IOException {
-        return docNorms[docID];
+        return docNorms.get(docID);
     }
 
-    public void loadNorms(String path) throws FileNotFoundException {
+    public void loadNorms(String path) throws IOException {
         File f = new File(path + Config.normsFileName);
         if (!f.exists()) return;
-        Scanner scn = new Scanner(f);
-        docNorms = new double[numDocs()];
-        for (int docID = 0; docID < docNorms.length; docID++)
-            docNorms[docID] = new Double(scn.nextLine());
-        scn.close();
+        docNorms = new DocNormsFile(f.getPath(), numDocs());
     }
 }
@@ -1,19 +1,19 @@
 package es.uam.eps.bmi.search.index;
 
+import es.uam.eps.bmi.search.index.structure.EditablePostingsList;
 import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.DocNormsFile;
 import es.uam.eps.bmi.search.vsm.AbstractVSMEngine;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Scanner;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -25,6 +25,12 @@ import org.jsoup.Jsoup;
  */
 public abstract class AbstractIndexBuilder implements IndexBuilder {
     protected static final int BUFFER_SIZE = 4096;
+
+    // Positions in the collection of the documents to index, for sharded builds
+    protected int firstDoc = 0;
+    protected int endDoc = Integer.MAX_VALUE;
+    // Documents read from the collection so far
+    protected int nRead;
     
     protected abstract void indexText(String text, String path) throws IOException;
     protected abstract Index getCoreIndex() throws IOException;
@@ -35,15 +41,32 @@ public abstract class AbstractIndexBuilder implements IndexBuilder {
         for (File f : dir.listFiles()) if (f.isFile()) f.delete();
     }
 
+    /**
+     * Only indexes the documents from position from (included) to position to
+     * (excluded) in the collection, counting from 0 in the order they are
+     * read. Documents out of the range are skipped without parsing them.
+     */
+    public void setDocRange(int from, int to) {
+        firstDoc = from;
+        endDoc = to;
+    }
+
+    // Counts the next document of the collection, returning whether it is in the range to index
+    protected boolean nextInRange() {
+        int pos = nRead++;
+        return pos >= firstDoc && pos < endDoc;
+    }
+
     protected void indexFolder(File dir) throws IOException {
         for (File f : dir.listFiles()) 
-            if (f.isFile()) indexHTML(new FileInputStream(f), f.getAbsolutePath());
+            if (f.isFile() && nextInRange()) indexHTML(new FileInputStream(f), f.getAbsolutePath());
     }
 
     protected void indexZip (File zipFile) throws IOException  {
         ZipInputStream in = new ZipInputStream(new FileInputStream(zipFile));
         ZipEntry entry;
         while ((entry = in.getNextEntry()) != null) {
+            if (!nextInRange()) continue;
             StringBuilder str = new StringBuilder();
             byte buffer[] = new byte[BUFFER_SIZE];
             int nread = 0;
@@ -56,7 +79,10 @@ public abstract class AbstractIndexBuilder implements IndexBuilder {
     
     protected void indexURLs(File f) throws IOException {
         Scanner in = new Scanner(f);
-        while (in.hasNext()) indexHTML(in.nextLine());
+        while (in.hasNext()) {
+            String url = in.nextLine();
+            if (nextInRange()) indexHTML(url);
+        }
     }
 
     protected void indexHTML(InputStream docStream, String path) throws IOException {
@@ -76,21 +102,36 @@ public abstract class AbstractIndexBuilder implements IndexBuilder {
         }
     }
      
+   // Reads every postings list back; builders that already go through them while saving override it
    protected void saveDocNorms(String indexPath) throws IOException {
         Index index = getCoreIndex();
         int numDocs = index.numDocs();
-        Map<Integer,Double> norms = new HashMap<Integer,Double>();
-        for (String term : index.getAllTerms()) {
-            long docFreq = index.getDocFreq(term);
-            for (Posting p : index.getPostings(term)) {
-                int docID = p.getDocID();
-                if (!norms.containsKey(docID)) norms.put(docID, 0.0);
-                norms.put(docID, norms.get(docID) + Math.pow(AbstractVSMEngine.tfidf(p.getFreq(), docFreq, numDocs), 2));
+        double norms[] = new double[numDocs];
+        for (String term : index.getAllTerms())
+            addWeights(norms, index.getPostings(term), index.getDocFreq(term), numDocs);
+        saveDocNorms(indexPath, norms);
+    }
+
+    // Adds the squared tf-idf weights of a term's postings to the squared norms of their documents
+    public static void addWeights(double norms[], PostingsList postings, long docFreq, int numDocs) {
+        double idf = AbstractVSMEngine.idf(docFreq, numDocs);
+        if (postings instanceof EditablePostingsList) {
+            EditablePostingsList list = (EditablePostingsList) postings;
+            for (int i = 0; i < list.size(); i++) {
+                double w = AbstractVSMEngine.tf(list.getFreq(i)) * idf;
+                norms[list.getDocID(i)] += w * w;
             }
         }
-        PrintStream out = new PrintStream(indexPath + Config.normsFileName);
-        for (int docID : norms.keySet())
-            out.println(Math.sqrt(norms.get(docID)));
-        out.close();
+        else for (Posting p : postings) {
+            double w = AbstractVSMEngine.tf(p.getFreq()) * idf;
+            norms[p.getDocID()] += w * w;
+        }
+    }
+
+    // Takes the squared norms, which are replaced by their square roots
+    protected void saveDocNorms(String indexPath, double norms[]) throws IOException {
+        for (int docID = 0; docID < norms.length; docID++)
+            norms[docID] = Math.sqrt(norms[docID]);
+        DocNormsFile.write(indexPath + Config.normsFileName, norms);
     }
 }
@@ -10,5 +10,10 @@ public class Config {
     public static String indexFileName = "/serialindex.dat";
     public static String dictionaryFileName = "/dictionary.dat";
     public static String postingsFileName = "/postings.dat";
+    public static String termHashFileName = "/termhash.dat";
+    public static String segmentsFileName = "/segments.dat";
+    public static String shardsFileName = "/shards.dat";
+    public static String impactsFileName = "/impacts.dat";
+    public static String impactTermsFileName = "/impactterms.dat";
     public static String graphFileName = "/webgraph.dat";
 }
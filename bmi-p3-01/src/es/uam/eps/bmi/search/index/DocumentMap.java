@@ -9,4 +9,9 @@ import java.io.IOException;
 public interface DocumentMap {
     public String getDocPath(int docID) throws IOException;
     public double getDocNorm(int docID) throws IOException;
+
+    // Deleted documents keep their docID in some indexes, but are never ranked
+    public default boolean isDeleted(int docID) {
+        return false;
+    }
 }
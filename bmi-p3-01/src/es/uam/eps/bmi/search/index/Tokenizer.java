@@ -0,0 +1,102 @@
+package es.uam.eps.bmi.search.index;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into terms in a single pass, producing exactly the terms of
+ * text.toLowerCase().split("\\P{Alpha}+") (or of split alone when not
+ * lowercasing): maximal runs of ASCII letters, plus an empty first term when
+ * the text starts with a separator or is empty, as split does. Each term is
+ * lowercased into a reusable buffer and handed to a callback, so tokenizing
+ * allocates nothing per term. Not thread safe; use one instance per thread.
+ *
+ * @author pablo
+ */
+public class Tokenizer {
+    public interface TermHandler {
+        // The term is chars[start..end), only valid during the call
+        public void term(CharSequence chars, int start, int end);
+    }
+
+    boolean lowercase;
+    // Locales whose lowercasing of 'I' and accented letters does not map to single chars
+    boolean localeSpecific;
+    char buffer[] = new char[64];
+    CharBuffer view = CharBuffer.wrap(buffer);
+
+    public Tokenizer(boolean lower) {
+        lowercase = lower;
+        String lang = Locale.getDefault().getLanguage();
+        localeSpecific = lower && (lang.equals("tr") || lang.equals("az") || lang.equals("lt"));
+    }
+
+    public void tokenize(String text, TermHandler handler) {
+        if (localeSpecific) {
+            for (String term : text.toLowerCase().split("\\P{Alpha}+"))
+                handler.term(term, 0, term.length());
+            return;
+        }
+        int n = text.length();
+        if (n == 0) {
+            handler.term(view, 0, 0);
+            return;
+        }
+        boolean leadingEmpty = !isTermChar(text.charAt(0));
+        int len = 0;
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            char lc = termChar(c);
+            if (lc != 0) {
+                if (len == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * len);
+                    view = CharBuffer.wrap(buffer);
+                }
+                buffer[len++] = lc;
+            }
+            // U+0130 lowercases to i followed by a combining dot, which separates terms
+            if ((lc == 0 || c == '\u0130') && len > 0) {
+                if (leadingEmpty) {
+                    handler.term(view, 0, 0);
+                    leadingEmpty = false;
+                }
+                handler.term(view, 0, len);
+                len = 0;
+            }
+        }
+        if (len > 0) {
+            if (leadingEmpty) handler.term(view, 0, 0);
+            handler.term(view, 0, len);
+        }
+    }
+
+    public String[] split(String text) {
+        final List<String> terms = new ArrayList<String>();
+        tokenize(text, new TermHandler() {
+            public void term(CharSequence chars, int start, int end) {
+                terms.add(chars.subSequence(start, end).toString());
+            }
+        });
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    boolean isTermChar(char c) {
+        return termChar(c) != 0;
+    }
+
+    // The (lowercased) term letter c becomes, or 0 if c separates terms
+    char termChar(char c) {
+        if (c < 0x80) {
+            char lc = (char) (c | 0x20);
+            if (lc < 'a' || lc > 'z') return 0;
+            return lowercase? lc : c;
+        }
+        if (!lowercase) return 0;
+        // Non-ASCII letters lowercasing to ASCII ones: U+0130 (dotted I) and U+212A (Kelvin sign)
+        char lc = Character.toLowerCase(c);
+        return lc >= 'a' && lc <= 'z'? lc : 0;
+    }
+}
@@ -3,13 +3,11 @@ package es.uam.eps.bmi.search.index.impl;
 import es.uam.eps.bmi.search.index.Config;
 import es.uam.eps.bmi.search.index.AbstractIndex;
 import es.uam.eps.bmi.search.index.structure.Dictionary;
-import es.uam.eps.bmi.search.index.structure.Posting;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.DocPathsFile;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Scanner;
 
 /**
  *
@@ -18,7 +16,7 @@ import java.util.Scanner;
 public class BaseIndex extends AbstractIndex {
     Dictionary dictionary;
     int numDocs;
-    String docPaths[];
+    DocPathsFile docPaths;
     
     public BaseIndex(String indexFolder) throws IOException {
         super(indexFolder);
@@ -44,27 +42,21 @@ public class BaseIndex extends AbstractIndex {
     }
 
     public long getTotalFreq(String term) throws IOException {
-        long freq = 0;
-        for (Posting p : getPostings(term)) freq += p.getFreq();
-        return freq;
+        return dictionary.getTotalFreq(term);
     }
 
     public long getDocFreq(String term) throws IOException {
         return dictionary.getDocFreq(term);
     }
 
-    public String getDocPath(int docID) {
-        return docPaths[docID];
+    public String getDocPath(int docID) throws IOException {
+        return docPaths.get(docID);
     }
 
-    public void loadPaths(String path) throws FileNotFoundException {
+    public void loadPaths(String path) throws IOException {
         File f = new File(path + Config.pathsFileName);
         if (!f.exists()) return;
-        Scanner scn = new Scanner(f);
-        numDocs = new Integer(scn.nextLine());
-        docPaths = new String[numDocs];
-        for (int docID = 0; docID < numDocs; docID++)
-            docPaths[docID] = scn.nextLine();
-        scn.close();
+        docPaths = new DocPathsFile(f.getPath());
+        numDocs = docPaths.size();
     }
 }
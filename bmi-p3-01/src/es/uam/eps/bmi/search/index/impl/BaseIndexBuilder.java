@@ -3,57 +3,227 @@ package es.uam.eps.bmi.search.index.impl;
 import es.uam.eps.bmi.search.index.Config;
 import es.uam.eps.bmi.search.index.AbstractIndexBuilder;
 import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.Tokenizer;
 import es.uam.eps.bmi.search.index.structure.EditableDictionary;
+import es.uam.eps.bmi.search.index.structure.impl.DocPathsFile;
 import es.uam.eps.bmi.search.index.structure.impl.HashDictionary;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.jsoup.Jsoup;
 
 /**
  *
  * @author pablo
  */
 public abstract class BaseIndexBuilder extends AbstractIndexBuilder {
+    // Documents handed to a worker at a time in pipelined mode
+    static final int CHUNK_SIZE = 64;
+
     int nDocs;
     EditableDictionary dictionary;
     List<String> docPaths;
+    // Squared document norms, when save() computes them while writing the postings
+    double norms[];
+
+    int nThreads = 1;
+    ThreadPoolExecutor pipeline;
+    List<Future<PartialIndex>> partials;
+    List<RawDocument> chunk;
+    ThreadLocal<Tokenizer> tokenizers = ThreadLocal.withInitial(() -> new Tokenizer(true));
 
 	public abstract void save(String indexPath) throws IOException;
-    
+
     public void build (String collectionPath, String indexPath) throws IOException {
         clear(indexPath);
         nDocs = 0;
-        dictionary = new HashDictionary();
+        dictionary = newDictionary();
         docPaths = new ArrayList<String>();
-        
-        File f = new File(collectionPath);
-        if (f.isDirectory()) indexFolder(f);                // A directory containing text files.
-        else if (f.getName().endsWith(".zip")) indexZip(f); // A zip file containing compressed text files.
-        else indexURLs(f);                                  // A file containing a list of URLs.
+        norms = null;
+
+        indexCollection(collectionPath);
         save(indexPath);
         saveDocPaths(indexPath);
         saveDocNorms(indexPath);
     }
-    
+
+    /**
+     * Number of threads parsing and tokenizing documents. With more than one,
+     * build runs a pipeline: the calling thread reads documents and workers
+     * parse and index contiguous chunks of them into private partial
+     * dictionaries, which are merged by chunk order once the collection is read.
+     */
+    public void setThreads(int n) {
+        nThreads = Math.max(1, n);
+    }
+
+    protected void indexCollection(String collectionPath) throws IOException {
+        nRead = 0;
+        if (nThreads > 1) startPipeline();
+        try {
+            File f = new File(collectionPath);
+            if (f.isDirectory()) indexFolder(f);                // A directory containing text files.
+            else if (f.getName().endsWith(".zip")) indexZip(f); // A zip file containing compressed text files.
+            else indexURLs(f);                                  // A file containing a list of URLs.
+            if (pipeline != null) finishPipeline();
+        } finally {
+            if (pipeline != null) {
+                pipeline.shutdownNow();
+                pipeline = null;
+            }
+        }
+    }
+
     void saveDocPaths(String indexPath) throws IOException {
-        PrintStream out = new PrintStream(indexPath + Config.pathsFileName);
-        out.println(nDocs);
-        for (String path : docPaths)
-            out.println(path);
-        out.close();
+        DocPathsFile.write(indexPath + Config.pathsFileName, docPaths);
+    }
+
+    protected void saveDocNorms(String indexPath) throws IOException {
+        if (norms != null) saveDocNorms(indexPath, norms);
+        else super.saveDocNorms(indexPath);
     }
 
     public void indexText(String text, String path) throws IOException {
-//        for (String term : text.toLowerCase().split("\\W+"))
-        for (String term : text.toLowerCase().split("\\P{Alpha}+"))
-            dictionary.add(term, nDocs);
+        indexTerms(dictionary, text, nDocs);
         docPaths.add(path);
         nDocs++;
     }
 
+    protected EditableDictionary newDictionary() {
+        return new HashDictionary();
+    }
+
+    // Must only touch dict, since workers call it concurrently on their own partial dictionaries
+    protected void indexTerms(final EditableDictionary dict, String text, final int docID) throws IOException {
+        // Terms are looked up straight from the characters of the tokenizer when the dictionary can
+        if (dict instanceof HashDictionary) {
+            final HashDictionary hash = (HashDictionary) dict;
+            tokenizer().tokenize(text, (term, start, end) -> hash.add(term, start, end, docID));
+        }
+        else tokenizer().tokenize(text, (term, start, end) -> dict.add(term.subSequence(start, end).toString(), docID));
+    }
+
+    // Tokenizers are reused, one per thread
+    protected Tokenizer tokenizer() {
+        return tokenizers.get();
+    }
+
     protected Index getCoreIndex() {
         return new BaseIndex(dictionary, nDocs);
     }
+
+    protected void indexHTML(InputStream docStream, String path) throws IOException {
+        if (pipeline == null) {
+            super.indexHTML(docStream, path);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte buffer[] = new byte[BUFFER_SIZE];
+        int nread;
+        while ((nread = docStream.read(buffer)) > 0)
+            bytes.write(buffer, 0, nread);
+        docStream.close();
+        enqueue(new RawDocument(path, null, bytes.toByteArray()));
+    }
+
+    protected void indexHTML(String content, String path) throws IOException {
+        if (pipeline == null) super.indexHTML(content, path);
+        else enqueue(new RawDocument(path, content, null));
+    }
+
+    void startPipeline() {
+        // Bounded work queue: when full the reader parses the chunk itself, which throttles reading
+        pipeline = new ThreadPoolExecutor(nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(2 * nThreads), new ThreadPoolExecutor.CallerRunsPolicy());
+        partials = new ArrayList<Future<PartialIndex>>();
+        chunk = new ArrayList<RawDocument>(CHUNK_SIZE);
+    }
+
+    void enqueue(RawDocument doc) {
+        chunk.add(doc);
+        if (chunk.size() == CHUNK_SIZE) submitChunk();
+    }
+
+    void submitChunk() {
+        if (chunk.isEmpty()) return;
+        final List<RawDocument> docs = chunk;
+        chunk = new ArrayList<RawDocument>(CHUNK_SIZE);
+        partials.add(pipeline.submit(new Callable<PartialIndex>() {
+            public PartialIndex call() throws IOException {
+                return indexChunk(docs);
+            }
+        }));
+    }
+
+    PartialIndex indexChunk(List<RawDocument> docs) throws IOException {
+        PartialIndex partial = new PartialIndex(newDictionary());
+        for (RawDocument doc : docs) {
+            String text;
+            if (doc.bytes != null)
+                text = Jsoup.parse(new ByteArrayInputStream(doc.bytes), StandardCharsets.UTF_8.name(), doc.path).text();
+            else try {
+                text = Jsoup.parse(doc.content, doc.path).text();
+            } catch (IllegalArgumentException ex) {
+                System.out.println("Failed to index document " + doc.path);
+                continue;
+            }
+            indexTerms(partial.dictionary, text, partial.paths.size());
+            partial.paths.add(doc.path);
+        }
+        return partial;
+    }
+
+    // Chunks are merged in submission order, so docIDs come out exactly as in a sequential build
+    void finishPipeline() throws IOException {
+        submitChunk();
+        for (Future<PartialIndex> f : partials) {
+            PartialIndex partial;
+            try {
+                partial = f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+                throw new IOException(ex.getCause());
+            }
+            dictionary.addAll(partial.dictionary, nDocs);
+            docPaths.addAll(partial.paths);
+            nDocs += partial.paths.size();
+        }
+        partials = null;
+    }
+
+    static class RawDocument {
+        String path;
+        String content;
+        byte bytes[];
+
+        RawDocument(String p, String c, byte b[]) {
+            path = p;
+            content = c;
+            bytes = b;
+        }
+    }
+
+    static class PartialIndex {
+        EditableDictionary dictionary;
+        List<String> paths;
+
+        PartialIndex(EditableDictionary dic) {
+            dictionary = dic;
+            paths = new ArrayList<String>();
+        }
+    }
 }
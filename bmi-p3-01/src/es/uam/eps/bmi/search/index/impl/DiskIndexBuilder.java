@@ -1,37 +1,70 @@
 package es.uam.eps.bmi.search.index.impl;
 
 import es.uam.eps.bmi.search.index.Config;
-import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.Index;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.BlockBounds;
 import es.uam.eps.bmi.search.index.structure.impl.DiskHashDictionary;
+import es.uam.eps.bmi.search.index.structure.impl.PostingsCodec;
+import es.uam.eps.bmi.search.vsm.AbstractVSMEngine;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 /**
  *
  * @author pablo
  */
 public class DiskIndexBuilder extends BaseIndexBuilder {
+    // Largest score bound of a posting of the last index saved, the block bound times the idf of the term
+    double maxScore;
+
+    // The score bounds of the blocks are filled in once the norms are accumulated, in the same pass as the postings
     public void save(String indexFolder) throws IOException {
+        BlockBounds bounds = new BlockBounds();
+        norms = save(indexFolder, getCoreIndex(), bounds);
+        double docNorms[] = new double[norms.length];
+        for (int docID = 0; docID < norms.length; docID++) docNorms[docID] = Math.sqrt(norms[docID]);
+        maxScore = bounds.write(indexFolder + Config.postingsFileName, docNorms);
+    }
+
+    // Writes the postings and dictionary of index, returning its squared document norms
+    double[] save(String indexFolder, Index index) throws IOException {
+        return save(indexFolder, index, null);
+    }
+
+    // Without bounds the lists have no score bounds, as in segments, whose norms are not those of the whole index
+    double[] save(String indexFolder, Index index, BlockBounds bounds) throws IOException {
         
     	DiskHashDictionary dict = new DiskHashDictionary(indexFolder);
-        RandomAccessFile postingsFile = new RandomAccessFile(indexFolder + Config.postingsFileName, "rw");
-        
-        long address = 0;
-        for (String term : dictionary.getAllTerms()) {
-            PostingsList postings = dictionary.getPostings(term);
-            postingsFile.writeInt(postings.size());
+        DataOutputStream postingsFile = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFolder + Config.postingsFileName)));
+        PostingsCodec.writeHeader(postingsFile, bounds == null? PostingsCodec.BLOCKS : PostingsCodec.BOUNDED_BLOCKS);
         
-            for (Posting p : postings) {
-                postingsFile.writeInt(p.getDocID());
-                postingsFile.writeLong(p.getFreq());
-            }
+        // Each list is encoded into a buffer first to know its size in bytes
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream listOut = new DataOutputStream(list);
+        long address = PostingsCodec.HEADER_SIZE;
+        int numDocs = index.numDocs();
+        double norms[] = new double[numDocs];
+        for (String term : index.getAllTerms()) {
+            list.reset();
+            PostingsList postings = index.getPostings(term);
+            // Terms of deleted documents only are dropped by merges
+            if (postings.size() == 0) continue;
+            if (bounds != null) bounds.startList(address, AbstractVSMEngine.idf(postings.size(), numDocs));
+            long totalFreq = PostingsCodec.writePostings(listOut, postings, false, bounds);
+            addWeights(norms, postings, postings.size(), numDocs);
+            list.writeTo(postingsFile);
             
-            dict.add(term, address);
-            address = postingsFile.getFilePointer();
+            dict.add(term, address, postings.size(), totalFreq);
+            address += list.size();
         }
         
         postingsFile.close();
         dict.save();
+        return norms;
     }
 }
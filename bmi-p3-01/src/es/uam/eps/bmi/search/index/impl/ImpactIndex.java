@@ -0,0 +1,39 @@
+package es.uam.eps.bmi.search.index.impl;
+
+import es.uam.eps.bmi.search.index.Config;
+import es.uam.eps.bmi.search.index.NoIndexException;
+import es.uam.eps.bmi.search.index.structure.impl.ImpactList;
+import es.uam.eps.bmi.search.index.structure.impl.ImpactsFile;
+import es.uam.eps.bmi.search.index.structure.impl.TermHashFile;
+import es.uam.eps.bmi.search.index.structure.impl.TermInfo;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Disk index with the impact-ordered lists written by ImpactIndexBuilder,
+ * looked up in a term hash file of their own.
+ *
+ * @author pablo
+ */
+public class ImpactIndex extends DiskIndex {
+    ImpactsFile impacts;
+    TermHashFile impactTerms;
+
+    public ImpactIndex(String path) throws IOException {
+        super(path);
+        if (!new File(indexFolder + Config.impactsFileName).exists()) throw new NoIndexException(indexFolder);
+        impacts = new ImpactsFile(indexFolder + Config.impactsFileName);
+        impactTerms = new TermHashFile(indexFolder + Config.impactTermsFileName);
+    }
+
+    // Null if the term is not in the index
+    public ImpactList getImpacts(String term) throws IOException {
+        TermInfo info = impactTerms.get(term);
+        return info == null? null : impacts.read(info.address);
+    }
+
+    // Score of an impact of 1
+    public double getQuantum() {
+        return impacts.getQuantum();
+    }
+}
@@ -0,0 +1,72 @@
+package es.uam.eps.bmi.search.index.impl;
+
+import es.uam.eps.bmi.search.index.Config;
+import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.ImpactsFile;
+import es.uam.eps.bmi.search.index.structure.impl.TermHashFile;
+import es.uam.eps.bmi.search.index.structure.impl.TermInfo;
+import es.uam.eps.bmi.search.vsm.AbstractVSMEngine;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Disk index builder that also writes the impact-ordered lists of the terms
+ * (see ImpactsFile) for score-at-a-time search. The index is read with
+ * ImpactIndex.
+ *
+ * @author pablo
+ */
+public class ImpactIndexBuilder extends DiskIndexBuilder {
+
+    public void save(String indexFolder) throws IOException {
+        super.save(indexFolder);
+        Index index = getCoreIndex();
+        int numDocs = index.numDocs();
+        double docNorms[] = new double[numDocs];
+        for (int docID = 0; docID < numDocs; docID++) docNorms[docID] = Math.sqrt(norms[docID]);
+
+        // The quantum comes from the largest score bound of the postings rather than from the largest impact, which
+        // would take another pass over the lists; with some slack for the rounding of a product of tf and idf
+        double max = maxScore * (1 + 1e-9);
+        double quantum = max > 0? max / ImpactsFile.LEVELS : 1;
+
+        DataOutputStream impactsFile = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFolder + Config.impactsFileName)));
+        ImpactsFile.writeHeader(impactsFile, quantum);
+        Map<String,TermInfo> terms = new HashMap<String,TermInfo>();
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream listOut = new DataOutputStream(list);
+        long address = ImpactsFile.HEADER_SIZE;
+        for (String term : index.getAllTerms()) {
+            PostingsList postings = index.getPostings(term);
+            int n = postings.size();
+            int docIDs[] = new int[n];
+            int impacts[] = new int[n];
+            long totalFreq = 0;
+            int i = 0;
+            for (Posting p : postings) {
+                docIDs[i] = p.getDocID();
+                impacts[i++] = ImpactsFile.quantize(impact(p, n, numDocs, docNorms), quantum);
+                totalFreq += p.getFreq();
+            }
+            list.reset();
+            ImpactsFile.writeList(listOut, docIDs, impacts, n);
+            list.writeTo(impactsFile);
+            terms.put(term, new TermInfo(address, n, totalFreq));
+            address += list.size();
+        }
+        impactsFile.close();
+        TermHashFile.write(indexFolder + Config.impactTermsFileName, terms);
+    }
+
+    static double impact(Posting p, long docFreq, int numDocs, double docNorms[]) {
+        return AbstractVSMEngine.tfidf(p.getFreq(), docFreq, numDocs) / docNorms[p.getDocID()];
+    }
+}
@@ -1,18 +1,19 @@
 package es.uam.eps.bmi.search.index.impl;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.List;
 
 import es.uam.eps.bmi.search.index.Config;
-import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.Tokenizer;
+import es.uam.eps.bmi.search.index.structure.EditableDictionary;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
 import es.uam.eps.bmi.search.index.structure.impl.PositionalDictionary;
-import es.uam.eps.bmi.search.index.structure.positional.PositionalPostingImpl;
-import es.uam.eps.bmi.search.index.structure.impl.PositionalPostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.PositionalDiskHashDictionary;
+import es.uam.eps.bmi.search.index.structure.impl.PostingsCodec;
 
 /**
  * Builder de indice posicional (con lista de posiciones en las postings list).
@@ -27,7 +28,7 @@ public class PositionalIndexBuilderImpl extends BaseIndexBuilder {
 		super();
 
 		nDocs = 0;
-		dictionary = new PositionalDictionary();
+		dictionary = newDictionary();
 		docPaths = new ArrayList<String>();
 	}
 
@@ -35,13 +36,7 @@ public class PositionalIndexBuilderImpl extends BaseIndexBuilder {
 	public void build(String collectionPath, String indexPath) throws IOException {
 		clear(indexPath);
 
-		File f = new File(collectionPath);
-		if (f.isDirectory())
-			indexFolder(f); // A directory containing text files.
-		else if (f.getName().endsWith(".zip"))
-			indexZip(f); // A zip file containing compressed text files.
-		else
-			indexURLs(f); // A file containing a list of URLs.
+		indexCollection(collectionPath);
 		save(indexPath);
 		saveDocPaths(indexPath);
 		saveDocNorms(indexPath);
@@ -51,49 +46,54 @@ public class PositionalIndexBuilderImpl extends BaseIndexBuilder {
 	public void save(String indexPath) throws IOException {
 		clear(indexPath);
 
-		// writers en archivo
-		FileOutputStream os = new FileOutputStream(indexPath + Config.dictionaryFileName, false);
-		PrintStream psDicc = new PrintStream(os, true, "UTF-8");
+		// diccionario de terminos y sus offsets, en archivo al final
+		PositionalDiskHashDictionary dict = new PositionalDiskHashDictionary(indexPath);
 
-		RandomAccessFile postingsFile = new RandomAccessFile(indexPath + Config.postingsFileName, "rw");
+		DataOutputStream postingsFile = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(indexPath + Config.postingsFileName)));
+		PostingsCodec.writeHeader(postingsFile);
 
-		long address = 0;
+		// cada lista se codifica primero en un buffer para conocer su tamano
+		ByteArrayOutputStream list = new ByteArrayOutputStream();
+		DataOutputStream listOut = new DataOutputStream(list);
+		long address = PostingsCodec.HEADER_SIZE;
+		// las normas de los documentos se acumulan en la misma pasada
+		norms = new double[nDocs];
 		for (String term : dictionary.getAllTerms()) {
-			PositionalPostingsList postings = (PositionalPostingsList) dictionary.getPostings(term);
-
-			postingsFile.writeInt(postings.size());
-
-			for (Posting p : postings) {
-				postingsFile.writeInt(p.getDocID());
-				postingsFile.writeLong(p.getFreq());
-
-				List<Integer> pl = ((PositionalPostingImpl) p).getPositions();
-				for (int i = 0; i < p.getFreq(); i++) {
-					postingsFile.writeInt(pl.get(i));
-				}
-			}
-
-			psDicc.println(term + "\t" + address); // termino y su offset
-			address = postingsFile.getFilePointer();
+			list.reset();
+			PostingsList postings = dictionary.getPostings(term);
+			long totalFreq = PostingsCodec.writePostings(listOut, postings, true);
+			addWeights(norms, postings, postings.size(), nDocs);
+			list.writeTo(postingsFile);
+
+			// termino, su offset y sus estadisticas
+			dict.add(term, address, postings.size(), totalFreq);
+			address += list.size();
 		}
 
 		postingsFile.close();
-		psDicc.close();
+		dict.save();
 
 	}
 
 	@Override
-	public void indexText(String text, String path) throws IOException {
+	protected EditableDictionary newDictionary() {
+		return new PositionalDictionary();
+	}
 
-		String[] terms = text.toLowerCase().split("\\P{Alpha}+");
+	@Override
+	protected void indexTerms(EditableDictionary dict, String text, final int docID) throws IOException {
 
-		int i = 0; // para calculo de posiciones
-		for (String term : terms) {
-			((PositionalDictionary) dictionary).add(term, nDocs, i);
-			i++;
-		}
-		docPaths.add(path);
-		nDocs++;
+		final PositionalDictionary positional = (PositionalDictionary) dict;
+		tokenizer().tokenize(text, new Tokenizer.TermHandler() {
+			int i = 0; // para calculo de posiciones
+
+			@Override
+			public void term(CharSequence chars, int start, int end) {
+				positional.add(chars, start, end, docID, i);
+				i++;
+			}
+		});
 	}
 
 	@Override
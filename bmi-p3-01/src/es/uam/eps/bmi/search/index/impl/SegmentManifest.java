@@ -0,0 +1,171 @@
+package es.uam.eps.bmi.search.index.impl;
+
+import es.uam.eps.bmi.search.index.Config;
+import es.uam.eps.bmi.search.index.NoIndexException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Live segments of a segmented index, in docID order. Each segment is a
+ * subfolder of the index holding a complete disk index of its documents and
+ * is never modified once written; documents deleted afterwards are recorded
+ * in a new deleted docs file of the segment, numbered by its deletion
+ * generation (0 for none). A manifest is committed by writing it to a
+ * temporary file and renaming it over the previous one, so that readers see
+ * either the old or the new list of segments, never a partial one.
+ *
+ * Layout: magic, version byte, long generation, int counter for new segment
+ * names, int number of segments, then the name, number of documents and,
+ * since version 2, deletion generation and number of deleted documents of
+ * every segment.
+ *
+ * @author pablo
+ */
+public class SegmentManifest {
+    public static final int MAGIC = 0x424D4947; // "BMIG"
+    public static final int VERSION = 2;
+
+    long generation;
+    int counter;
+    List<Segment> segments = new ArrayList<Segment>();
+
+    public static boolean exists(String indexFolder) {
+        return new File(indexFolder + Config.segmentsFileName).exists();
+    }
+
+    public static SegmentManifest read(String indexFolder) throws IOException {
+        File f = new File(indexFolder + Config.segmentsFileName);
+        if (!f.exists()) throw new NoIndexException(indexFolder);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a segment manifest: " + f);
+            int version = in.readByte();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported segment manifest version " + version);
+            SegmentManifest manifest = new SegmentManifest();
+            manifest.generation = in.readLong();
+            manifest.counter = in.readInt();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                int numDocs = in.readInt();
+                manifest.segments.add(version < 2? new Segment(name, numDocs)
+                        : new Segment(name, numDocs, in.readInt(), in.readInt()));
+            }
+            return manifest;
+        } finally {
+            in.close();
+        }
+    }
+
+    public void commit(String indexFolder) throws IOException {
+        generation++;
+        File tmp = new File(indexFolder + Config.segmentsFileName + ".tmp");
+        FileOutputStream file = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(generation);
+            out.writeInt(counter);
+            out.writeInt(segments.size());
+            for (Segment s : segments) {
+                out.writeUTF(s.name);
+                out.writeInt(s.numDocs);
+                out.writeInt(s.delGen);
+                out.writeInt(s.delCount);
+            }
+            out.flush();
+            // The new manifest must be on disk before it replaces the old one
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), new File(indexFolder + Config.segmentsFileName).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public int numDocs() {
+        int n = 0;
+        for (Segment s : segments) n += s.numDocs;
+        return n;
+    }
+
+    String newSegmentName() {
+        return "_" + Integer.toString(counter++, Character.MAX_RADIX);
+    }
+
+    // Current version of a segment, which may have new deletions
+    Segment get(String name) {
+        return segments.get(indexOf(name));
+    }
+
+    int indexOf(String name) {
+        for (int i = 0; i < segments.size(); i++)
+            if (segments.get(i).name.equals(name)) return i;
+        return -1;
+    }
+
+    void set(Segment segment) {
+        segments.set(indexOf(segment.name), segment);
+    }
+
+    // Replaces a run of consecutive segments with the one they were merged into, if any
+    void replace(List<Segment> merged, Segment segment) {
+        int start = indexOf(merged.get(0).name);
+        segments.subList(start, start + merged.size()).clear();
+        if (segment != null) segments.add(start, segment);
+    }
+
+    public static class Segment {
+        final String name;
+        final int numDocs;
+        final int delGen;
+        final int delCount;
+
+        Segment(String n, int nDocs) {
+            this(n, nDocs, 0, 0);
+        }
+
+        Segment(String n, int nDocs, int gen, int count) {
+            name = n;
+            numDocs = nDocs;
+            delGen = gen;
+            delCount = count;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int numDocs() {
+            return numDocs;
+        }
+
+        public int numDeletedDocs() {
+            return delCount;
+        }
+
+        // Deleted docs file of the segment, or null if it has no deletions
+        String deletesFile(String indexFolder) {
+            return delGen == 0? null : indexFolder + "/" + name + "/deleted_" + delGen + ".dat";
+        }
+    }
+}
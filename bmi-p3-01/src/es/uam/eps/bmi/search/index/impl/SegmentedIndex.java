@@ -0,0 +1,184 @@
+package es.uam.eps.bmi.search.index.impl;
+
+import es.uam.eps.bmi.search.index.AbstractIndex;
+import es.uam.eps.bmi.search.index.AbstractIndexBuilder;
+import es.uam.eps.bmi.search.index.structure.EditablePostingsList;
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.DeletedDocsFile;
+import es.uam.eps.bmi.search.index.structure.impl.LivePostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.SegmentedPostingsList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Index over the live segments of a segmented index, as listed by its
+ * manifest when it is opened; later commits need a new instance. Segment i
+ * holds the docIDs from bases[i] on.
+ *
+ * Deleted documents keep their docIDs and are skipped by the postings lists
+ * and rankings, but still count in the statistics until merges purge them.
+ *
+ * Statistics are those of the whole index. Document norms are stored per
+ * segment with the segment statistics, so with more than one segment they are
+ * recomputed on first use with the global ones, and scores match those of a
+ * single index of the same documents (up to rounding).
+ *
+ * @author pablo
+ */
+public class SegmentedIndex extends AbstractIndex {
+    DiskIndex segments[];
+    int bases[];
+    int numDocs;
+    double norms[];
+    int newDocIDs[];
+    // Deleted docIDs of each segment, null for none
+    BitSet deleted[];
+
+    public SegmentedIndex(String path) throws IOException {
+        super(path);
+        SegmentManifest manifest = SegmentManifest.read(path);
+        while (true) {
+            try {
+                open(manifest.getSegments());
+                return;
+            } catch (IOException ex) {
+                // A merge may have deleted some segment after the manifest was read
+                SegmentManifest current = SegmentManifest.read(path);
+                if (current.getGeneration() == manifest.getGeneration()) throw ex;
+                manifest = current;
+            }
+        }
+    }
+
+    SegmentedIndex(String path, List<SegmentManifest.Segment> live) throws IOException {
+        super(path);
+        open(live);
+    }
+
+    // Every file of the segments is mapped here, so they stay readable if a merge deletes them
+    void open(List<SegmentManifest.Segment> live) throws IOException {
+        numDocs = 0;
+        segments = new DiskIndex[live.size()];
+        bases = new int[live.size()];
+        deleted = new BitSet[live.size()];
+        for (int i = 0; i < segments.length; i++) {
+            SegmentManifest.Segment segment = live.get(i);
+            segments[i] = new DiskIndex(indexFolder + "/" + segment.name);
+            bases[i] = numDocs;
+            numDocs += segments[i].numDocs();
+            if (segment.delGen > 0) deleted[i] = DeletedDocsFile.read(segment.deletesFile(indexFolder));
+        }
+    }
+
+    public int numDocs() {
+        return numDocs;
+    }
+
+    public PostingsList getPostings(String term) throws IOException {
+        return segmentPostings(term);
+    }
+
+    PostingsList segmentPostings(String term) throws IOException {
+        PostingsList lists[] = new PostingsList[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            lists[i] = segments[i].getPostings(term);
+            if (deleted[i] != null) lists[i] = new LivePostingsList(lists[i], deleted[i]);
+        }
+        return lists.length == 1? lists[0] : new SegmentedPostingsList(lists, bases);
+    }
+
+    // The postings of the term decoded into memory and renumbered without deleted documents, for merges
+    EditablePostingsList readPostings(String term) throws IOException {
+        int newDocIDs[] = newDocIDs();
+        EditablePostingsList postings = new EditablePostingsList();
+        for (Posting p : segmentPostings(term))
+            postings.add(newDocIDs[p.getDocID()], p.getFreq());
+        return postings;
+    }
+
+    // docIDs once deleted documents are purged, -1 for these
+    synchronized int[] newDocIDs() {
+        if (newDocIDs == null) {
+            newDocIDs = new int[numDocs];
+            int next = 0;
+            for (int docID = 0; docID < numDocs; docID++)
+                newDocIDs[docID] = isDeleted(docID)? -1 : next++;
+        }
+        return newDocIDs;
+    }
+
+    public int numLiveDocs() {
+        int n = numDocs;
+        for (BitSet d : deleted)
+            if (d != null) n -= d.cardinality();
+        return n;
+    }
+
+    // Paths of the documents that are not deleted, in docID order
+    List<String> getLivePaths() throws IOException {
+        List<String> paths = new ArrayList<String>(numLiveDocs());
+        for (int docID = 0; docID < numDocs; docID++)
+            if (!isDeleted(docID)) paths.add(getDocPath(docID));
+        return paths;
+    }
+
+    public boolean isDeleted(int docID) {
+        int i = segment(docID);
+        return deleted[i] != null && deleted[i].get(docID - bases[i]);
+    }
+
+    public Collection<String> getAllTerms() throws IOException {
+        if (segments.length == 1) return segments[0].getAllTerms();
+        Set<String> terms = new LinkedHashSet<String>();
+        for (DiskIndex segment : segments)
+            terms.addAll(segment.getAllTerms());
+        return terms;
+    }
+
+    public long getTotalFreq(String term) throws IOException {
+        long freq = 0;
+        for (DiskIndex segment : segments) freq += segment.getTotalFreq(term);
+        return freq;
+    }
+
+    public long getDocFreq(String term) throws IOException {
+        long docFreq = 0;
+        for (DiskIndex segment : segments) docFreq += segment.getDocFreq(term);
+        return docFreq;
+    }
+
+    public String getDocPath(int docID) throws IOException {
+        int i = segment(docID);
+        return segments[i].getDocPath(docID - bases[i]);
+    }
+
+    public double getDocNorm(int docID) throws IOException {
+        if (segments.length == 1) return segments[0].getDocNorm(docID);
+        return norms()[docID];
+    }
+
+    synchronized double[] norms() throws IOException {
+        if (norms == null) {
+            double sq[] = new double[numDocs];
+            for (String term : getAllTerms())
+                AbstractIndexBuilder.addWeights(sq, getPostings(term), getDocFreq(term), numDocs);
+            for (int docID = 0; docID < numDocs; docID++)
+                sq[docID] = Math.sqrt(sq[docID]);
+            norms = sq;
+        }
+        return norms;
+    }
+
+    // Segment holding the docID
+    int segment(int docID) {
+        int i = Arrays.binarySearch(bases, docID);
+        return i < 0? -i - 2 : i;
+    }
+}
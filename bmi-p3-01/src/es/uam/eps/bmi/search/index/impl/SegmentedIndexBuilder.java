@@ -0,0 +1,359 @@
+package es.uam.eps.bmi.search.index.impl;
+
+import es.uam.eps.bmi.search.index.Config;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.DeletedDocsFile;
+import es.uam.eps.bmi.search.index.structure.impl.DocPathsFile;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Disk index builder in append mode: build adds the documents of a collection
+ * to the index instead of replacing it. Documents are buffered in memory and
+ * written as a new immutable segment every maxBufferedDocs documents (in
+ * pipelined mode, once the collection is read) and at the end of each build,
+ * and each new segment is committed to the manifest (see SegmentManifest).
+ * The index is read with SegmentedIndex.
+ *
+ * A background thread keeps the number of segments bounded with a tiered
+ * policy: segments are grouped in levels by size, a level being mergeFactor
+ * times larger than the previous one, and whenever mergeFactor consecutive
+ * segments are in the same level they are merged into one of the next level.
+ * Only consecutive segments are merged, so docIDs keep the order in which
+ * documents were added. Only one builder may write to an index at a time.
+ *
+ * Documents are deleted by path, and updated by deleting and adding them
+ * again. Deletions are applied on the next commit (when the buffer is written
+ * or commit is called): the matching documents of the committed segments are
+ * marked in new deleted docs files of their segments, and those of the buffer
+ * in the deleted docs file of the new segment. Merges leave deleted documents
+ * out, and segments with more deleted than live documents are rewritten alone.
+ *
+ * @author pablo
+ */
+public class SegmentedIndexBuilder extends DiskIndexBuilder {
+    int maxBufferedDocs = 10000;
+    int mergeFactor = 10;
+
+    String indexFolder;
+    // Guarded by this, shared with the merge thread
+    SegmentManifest manifest;
+    // Running merge, or failed one until waitForMerges reports it
+    Future<Void> merging;
+    // Paths deleted since the last commit, with the number of buffered documents at the time of deletion
+    Map<String,Integer> pendingDeletes = new HashMap<String,Integer>();
+    ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "segment-merger");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public void setMaxBufferedDocs(int n) {
+        maxBufferedDocs = Math.max(1, n);
+    }
+
+    public void setMergeFactor(int n) {
+        mergeFactor = Math.max(2, n);
+    }
+
+    public void build(String collectionPath, String indexPath) throws IOException {
+        open(indexPath);
+        indexCollection(collectionPath);
+        commit();
+    }
+
+    // Opens the index to add, delete or update documents outside build
+    public void open(String indexPath) throws IOException {
+        if (indexPath.equals(indexFolder)) return;
+        if (indexFolder != null) commit();
+        waitForMerges();
+        Files.createDirectories(Paths.get(indexPath));
+        SegmentManifest m = SegmentManifest.exists(indexPath)? SegmentManifest.read(indexPath) : new SegmentManifest();
+        synchronized (this) {
+            indexFolder = indexPath;
+            manifest = m;
+        }
+        deleteUnusedSegments();
+        reset();
+    }
+
+    void reset() {
+        nDocs = 0;
+        dictionary = newDictionary();
+        docPaths = new ArrayList<String>();
+        norms = null;
+    }
+
+    public void indexText(String text, String path) throws IOException {
+        super.indexText(text, path);
+        if (nDocs >= maxBufferedDocs) commit();
+    }
+
+    // Deletes every document with the path, including the ones added before in this commit
+    public void deleteDocument(String path) {
+        pendingDeletes.put(path, nDocs);
+    }
+
+    public void updateDocument(String path, String text) throws IOException {
+        deleteDocument(path);
+        indexText(text, path);
+    }
+
+    // Writes the buffered documents as a new segment and commits it along with the pending deletions
+    public void commit() throws IOException {
+        if (nDocs == 0 && pendingDeletes.isEmpty()) return;
+        SegmentManifest.Segment segment = nDocs == 0? null : writeSegment();
+        List<File> obsolete;
+        synchronized (this) {
+            obsolete = applyDeletes();
+            if (segment != null) manifest.segments.add(segment);
+            manifest.commit(indexFolder);
+        }
+        for (File f : obsolete) f.delete();
+        pendingDeletes.clear();
+        reset();
+        maybeMerge();
+    }
+
+    SegmentManifest.Segment writeSegment() throws IOException {
+        String name;
+        synchronized (this) {
+            name = manifest.newSegmentName();
+        }
+        String folder = indexFolder + "/" + name;
+        Files.createDirectories(Paths.get(folder));
+        // No block bounds, as in merged segments: their norms are not those of the whole index
+        norms = save(folder, getCoreIndex());
+        saveDocPaths(folder);
+        saveDocNorms(folder);
+
+        BitSet deleted = new BitSet();
+        for (int docID = 0; docID < nDocs; docID++) {
+            Integer buffered = pendingDeletes.get(docPaths.get(docID));
+            if (buffered != null && docID < buffered) deleted.set(docID);
+        }
+        SegmentManifest.Segment segment = deleted.isEmpty()? new SegmentManifest.Segment(name, nDocs)
+                : new SegmentManifest.Segment(name, nDocs, 1, deleted.cardinality());
+        if (!deleted.isEmpty()) DeletedDocsFile.write(segment.deletesFile(indexFolder), deleted);
+        // Must be on disk before a manifest refers to it
+        sync(new File(folder));
+        return segment;
+    }
+
+    // Marks the pending deletions in the committed segments, returning the files replaced by the new ones
+    List<File> applyDeletes() throws IOException {
+        List<File> obsolete = new ArrayList<File>();
+        if (pendingDeletes.isEmpty()) return obsolete;
+        for (SegmentManifest.Segment s : new ArrayList<SegmentManifest.Segment>(manifest.segments)) {
+            BitSet deleted = s.delGen == 0? new BitSet() : DeletedDocsFile.read(s.deletesFile(indexFolder));
+            DocPathsFile paths = new DocPathsFile(indexFolder + "/" + s.name + Config.pathsFileName);
+            int count = deleted.cardinality();
+            for (int docID = 0; docID < s.numDocs; docID++)
+                if (!deleted.get(docID) && pendingDeletes.containsKey(paths.get(docID))) deleted.set(docID);
+            if (deleted.cardinality() == count) continue;
+            SegmentManifest.Segment updated = new SegmentManifest.Segment(s.name, s.numDocs, s.delGen + 1, deleted.cardinality());
+            DeletedDocsFile.write(updated.deletesFile(indexFolder), deleted);
+            syncDirectory(new File(indexFolder + "/" + s.name));
+            if (s.delGen > 0) obsolete.add(new File(s.deletesFile(indexFolder)));
+            manifest.set(updated);
+        }
+        return obsolete;
+    }
+
+    synchronized void maybeMerge() {
+        if (merging != null) return;
+        final List<SegmentManifest.Segment> run = findMerge(manifest.segments);
+        if (run == null) return;
+        merging = merger.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                merge(run);
+                synchronized (SegmentedIndexBuilder.this) {
+                    merging = null;
+                    maybeMerge();
+                }
+                return null;
+            }
+        });
+    }
+
+    // A segment that is mostly deleted documents, else the first run of mergeFactor consecutive segments in the same level, or null
+    List<SegmentManifest.Segment> findMerge(List<SegmentManifest.Segment> segments) {
+        for (SegmentManifest.Segment s : segments)
+            if (2 * s.delCount > s.numDocs) {
+                List<SegmentManifest.Segment> run = new ArrayList<SegmentManifest.Segment>();
+                run.add(s);
+                return run;
+            }
+        int start = 0;
+        for (int i = 1; i <= segments.size(); i++) {
+            if (i < segments.size() && level(segments.get(i)) == level(segments.get(start))) {
+                if (i - start + 1 == mergeFactor)
+                    return new ArrayList<SegmentManifest.Segment>(segments.subList(start, i + 1));
+            }
+            else start = i;
+        }
+        return null;
+    }
+
+    int level(SegmentManifest.Segment segment) {
+        int level = 0;
+        for (long size = maxBufferedDocs; segment.numDocs - segment.delCount > size; size *= mergeFactor) level++;
+        return level;
+    }
+
+    // Merges a run of consecutive segments into a new one without their deleted documents and commits it in their place
+    void merge(List<SegmentManifest.Segment> run) throws IOException {
+        String name;
+        synchronized (this) {
+            name = manifest.newSegmentName();
+        }
+        String folder = indexFolder + "/" + name;
+        Files.createDirectories(Paths.get(folder));
+
+        // Each merged list is decoded into memory once, to be both written and weighted
+        SegmentedIndex source = new SegmentedIndex(indexFolder, run) {
+            public int numDocs() {
+                return numLiveDocs();
+            }
+
+            public PostingsList getPostings(String term) throws IOException {
+                return readPostings(term);
+            }
+        };
+        double norms[] = save(folder, source);
+        DocPathsFile.write(folder + Config.pathsFileName, source.getLivePaths());
+        saveDocNorms(folder, norms);
+        int liveDocs = source.numDocs();
+
+        synchronized (this) {
+            // Documents deleted from the run while it was being merged
+            BitSet deleted = new BitSet();
+            int newDocIDs[] = source.newDocIDs();
+            for (int i = 0; i < run.size(); i++) {
+                SegmentManifest.Segment current = manifest.get(run.get(i).name);
+                if (current.delGen == run.get(i).delGen) continue;
+                BitSet now = DeletedDocsFile.read(current.deletesFile(indexFolder));
+                for (int docID = now.nextSetBit(0); docID >= 0; docID = now.nextSetBit(docID + 1)) {
+                    int newDocID = newDocIDs[source.bases[i] + docID];
+                    if (newDocID >= 0) deleted.set(newDocID);
+                }
+            }
+            SegmentManifest.Segment merged = null;
+            if (liveDocs > 0 && deleted.isEmpty()) merged = new SegmentManifest.Segment(name, liveDocs);
+            else if (liveDocs > 0) {
+                merged = new SegmentManifest.Segment(name, liveDocs, 1, deleted.cardinality());
+                DeletedDocsFile.write(merged.deletesFile(indexFolder), deleted);
+            }
+            // Must be on disk before a manifest refers to it
+            if (merged != null) sync(new File(folder));
+            manifest.replace(run, merged);
+            manifest.commit(indexFolder);
+        }
+        // Readers that still have them open keep their mappings
+        for (SegmentManifest.Segment s : run) delete(new File(indexFolder + "/" + s.name));
+        if (liveDocs == 0) delete(new File(folder));
+    }
+
+    // Merges all the segments into one, once background merges are over
+    public void forceMerge() throws IOException {
+        waitForMerges();
+        List<SegmentManifest.Segment> all;
+        synchronized (this) {
+            all = new ArrayList<SegmentManifest.Segment>(manifest.segments);
+        }
+        boolean deletions = false;
+        for (SegmentManifest.Segment s : all) deletions |= s.delCount > 0;
+        if (all.size() > 1 || deletions) merge(all);
+    }
+
+    public void waitForMerges() throws IOException {
+        while (true) {
+            Future<Void> f;
+            synchronized (this) {
+                f = merging;
+            }
+            if (f == null) return;
+            try {
+                f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                synchronized (this) {
+                    if (merging == f) merging = null;
+                }
+                if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+                throw new IOException(ex.getCause());
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        if (indexFolder != null) commit();
+        waitForMerges();
+        merger.shutdown();
+    }
+
+    // Segment folders and deleted docs files left behind by merges or interrupted builds
+    void deleteUnusedSegments() {
+        Map<String,String> live = new HashMap<String,String>();
+        synchronized (this) {
+            for (SegmentManifest.Segment s : manifest.segments) live.put(s.name, "deleted_" + s.delGen + ".dat");
+        }
+        for (File f : new File(indexFolder).listFiles()) {
+            if (!f.isDirectory() || !f.getName().startsWith("_")) continue;
+            if (!live.containsKey(f.getName())) delete(f);
+            else for (File d : f.listFiles())
+                if (d.getName().startsWith("deleted_") && !d.getName().equals(live.get(f.getName()))) d.delete();
+        }
+    }
+
+    // Forces the files of a new segment folder to disk, along with its entries and its own entry in the index folder
+    static void sync(File dir) throws IOException {
+        for (File f : dir.listFiles()) {
+            FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+        syncDirectory(dir);
+        syncDirectory(dir.getAbsoluteFile().getParentFile());
+    }
+
+    static void syncDirectory(File dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException ex) {
+            // Directories cannot be opened on some platforms (Windows), where their entries need no sync
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    static void delete(File dir) {
+        File files[] = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+}
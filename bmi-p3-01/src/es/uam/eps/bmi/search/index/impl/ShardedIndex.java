@@ -0,0 +1,180 @@
+package es.uam.eps.bmi.search.index.impl;
+
+import es.uam.eps.bmi.search.index.AbstractIndex;
+import es.uam.eps.bmi.search.index.Config;
+import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.NoIndexException;
+import es.uam.eps.bmi.search.index.structure.EditablePostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.SegmentedPostingsList;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index over the shards built by ShardedIndexBuilder, each one opened with
+ * the loader of its index type (e.g. DiskIndex::new). As a whole it behaves
+ * like a single index of the collection. shard(i) gives a view of shard i
+ * with local docIDs but the statistics and norms of the whole index, so
+ * engines searching it score documents as they would in a single index.
+ *
+ * @author pablo
+ */
+public class ShardedIndex extends AbstractIndex {
+    Index shards[];
+    int bases[];
+    int numDocs;
+
+    public interface ShardLoader {
+        public Index load(String folder) throws IOException;
+    }
+
+    public ShardedIndex(String path, ShardLoader loader) throws IOException {
+        super(path);
+        File f = new File(path + Config.shardsFileName);
+        if (!f.exists()) throw new NoIndexException(path);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != ShardedIndexBuilder.MAGIC) throw new IOException("Not a shards file: " + f);
+            int version = in.readByte();
+            if (version != ShardedIndexBuilder.VERSION) throw new IOException("Unsupported shards file version " + version);
+            shards = new Index[in.readInt()];
+        } finally {
+            in.close();
+        }
+        bases = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = loader.load(ShardedIndexBuilder.shardFolder(path, i));
+            bases[i] = numDocs;
+            numDocs += shards[i].numDocs();
+        }
+        loadNorms(path);
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+
+    // First docID of shard i
+    public int base(int i) {
+        return bases[i];
+    }
+
+    public Index shard(int i) {
+        return new ShardView(i, null);
+    }
+
+    // With the document frequencies of some terms already known, as the query terms of a search
+    public Index shard(int i, Map<String,Long> docFreqs) {
+        return new ShardView(i, docFreqs);
+    }
+
+    public int numDocs() {
+        return numDocs;
+    }
+
+    public PostingsList getPostings(String term) throws IOException {
+        PostingsList lists[] = new PostingsList[shards.length];
+        for (int i = 0; i < shards.length; i++) lists[i] = postings(shards[i], term);
+        return new SegmentedPostingsList(lists, bases);
+    }
+
+    // Terms of the index may be missing from some shards
+    static PostingsList postings(Index shard, String term) throws IOException {
+        PostingsList postings = shard.getPostings(term);
+        return postings != null? postings : new EditablePostingsList();
+    }
+
+    public Collection<String> getAllTerms() throws IOException {
+        Set<String> terms = new LinkedHashSet<String>();
+        for (Index shard : shards) terms.addAll(shard.getAllTerms());
+        return terms;
+    }
+
+    public long getTotalFreq(String term) throws IOException {
+        long freq = 0;
+        for (Index shard : shards) freq += shard.getTotalFreq(term);
+        return freq;
+    }
+
+    public long getDocFreq(String term) throws IOException {
+        long docFreq = 0;
+        for (Index shard : shards) docFreq += shard.getDocFreq(term);
+        return docFreq;
+    }
+
+    public String getDocPath(int docID) throws IOException {
+        int i = shardOf(docID);
+        return shards[i].getDocPath(docID - bases[i]);
+    }
+
+    public boolean isDeleted(int docID) {
+        int i = shardOf(docID);
+        return shards[i].isDeleted(docID - bases[i]);
+    }
+
+    // Shard holding the docID
+    int shardOf(int docID) {
+        int i = Arrays.binarySearch(bases, docID);
+        if (i < 0) return -i - 2;
+        // Empty shards share their base with the next one
+        while (i + 1 < bases.length && bases[i + 1] == docID) i++;
+        return i;
+    }
+
+    class ShardView implements Index {
+        Index shard;
+        int base;
+        Map<String,Long> docFreqs;
+
+        ShardView(int i, Map<String,Long> df) {
+            shard = shards[i];
+            base = bases[i];
+            docFreqs = df;
+        }
+
+        public int numDocs() {
+            return numDocs;
+        }
+
+        public PostingsList getPostings(String term) throws IOException {
+            return postings(shard, term);
+        }
+
+        public Collection<String> getAllTerms() throws IOException {
+            return shard.getAllTerms();
+        }
+
+        public long getTotalFreq(String term) throws IOException {
+            return ShardedIndex.this.getTotalFreq(term);
+        }
+
+        public long getDocFreq(String term) throws IOException {
+            Long docFreq = docFreqs == null? null : docFreqs.get(term);
+            return docFreq != null? docFreq : ShardedIndex.this.getDocFreq(term);
+        }
+
+        public String getFolder() throws IOException {
+            return shard.getFolder();
+        }
+
+        public String getDocPath(int docID) throws IOException {
+            return shard.getDocPath(docID);
+        }
+
+        public double getDocNorm(int docID) throws IOException {
+            return ShardedIndex.this.getDocNorm(base + docID);
+        }
+
+        public boolean isDeleted(int docID) {
+            return shard.isDeleted(docID);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package es.uam.eps.bmi.search.index.impl;
+
+import es.uam.eps.bmi.search.index.AbstractIndexBuilder;
+import es.uam.eps.bmi.search.index.Config;
+import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.IndexBuilder;
+import es.uam.eps.bmi.search.index.structure.impl.DocNormsFile;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.zip.ZipFile;
+
+/**
+ * Builds a sharded index: the collection is split by position into ranges of
+ * consecutive documents, and each range is indexed into a shard subfolder by
+ * its own builder, all of them in parallel. Shard i holds the docIDs that
+ * follow those of shard i-1, so docIDs are the same as in a single index.
+ *
+ * Every builder reads the whole collection but only parses the documents of
+ * its range. Each shard is a complete index of its documents; the document
+ * norms with the statistics of the whole collection are saved in the index
+ * folder, and the number of shards in the shards file (magic, version byte,
+ * int number of shards). The index is read with ShardedIndex.
+ *
+ * @author pablo
+ */
+public class ShardedIndexBuilder implements IndexBuilder {
+    public static final int MAGIC = 0x424D4952; // "BMIR"
+    public static final int VERSION = 1;
+
+    Supplier<? extends BaseIndexBuilder> builders;
+    int nShards;
+
+    public ShardedIndexBuilder(Supplier<? extends BaseIndexBuilder> b, int n) {
+        builders = b;
+        nShards = Math.max(1, n);
+    }
+
+    public void build(String collectionPath, String indexPath) throws IOException {
+        Files.createDirectories(Paths.get(indexPath));
+        int nDocs = countDocuments(collectionPath);
+        final List<BaseIndexBuilder> shards = new ArrayList<BaseIndexBuilder>();
+        List<Future<Void>> built = new ArrayList<Future<Void>>();
+        ExecutorService pool = Executors.newFixedThreadPool(nShards);
+        try {
+            for (int i = 0; i < nShards; i++) {
+                final BaseIndexBuilder builder = builders.get();
+                builder.setDocRange((int) ((long) nDocs * i / nShards), (int) ((long) nDocs * (i + 1) / nShards));
+                shards.add(builder);
+                final String folder = shardFolder(indexPath, i);
+                built.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        builder.build(collectionPath, folder);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : built) f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Index> cores = new ArrayList<Index>();
+        for (BaseIndexBuilder builder : shards) cores.add(builder.getCoreIndex());
+        saveDocNorms(indexPath, cores);
+        saveShards(indexPath);
+    }
+
+    // Norms with the document frequencies and number of documents of the whole collection
+    void saveDocNorms(String indexPath, List<Index> shards) throws IOException {
+        int numDocs = 0;
+        Map<String,Long> docFreqs = new HashMap<String,Long>();
+        for (Index shard : shards) {
+            numDocs += shard.numDocs();
+            for (String term : shard.getAllTerms())
+                docFreqs.merge(term, shard.getDocFreq(term), Long::sum);
+        }
+        double norms[] = new double[numDocs];
+        double shardNorms[];
+        int base = 0;
+        for (Index shard : shards) {
+            shardNorms = new double[shard.numDocs()];
+            for (String term : shard.getAllTerms())
+                AbstractIndexBuilder.addWeights(shardNorms, shard.getPostings(term), docFreqs.get(term), numDocs);
+            for (int docID = 0; docID < shardNorms.length; docID++)
+                norms[base + docID] = Math.sqrt(shardNorms[docID]);
+            base += shardNorms.length;
+        }
+        DocNormsFile.write(indexPath + Config.normsFileName, norms);
+    }
+
+    void saveShards(String indexPath) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexPath + Config.shardsFileName)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(nShards);
+        out.close();
+    }
+
+    static String shardFolder(String indexPath, int i) {
+        return indexPath + "/shard" + i;
+    }
+
+    // Number of documents builders read from the collection, counted as they do
+    static int countDocuments(String collectionPath) throws IOException {
+        File f = new File(collectionPath);
+        int n = 0;
+        if (f.isDirectory()) {
+            for (File doc : f.listFiles()) if (doc.isFile()) n++;
+        }
+        else if (f.getName().endsWith(".zip")) {
+            ZipFile zip = new ZipFile(f);
+            n = zip.size();
+            zip.close();
+        }
+        else {
+            Scanner in = new Scanner(f);
+            while (in.hasNext()) {
+                in.nextLine();
+                n++;
+            }
+            in.close();
+        }
+        return n;
+    }
+}
@@ -2,6 +2,7 @@ package es.uam.eps.bmi.search.index.lucene;
 
 import es.uam.eps.bmi.search.index.AbstractIndexBuilder;
 import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.vsm.AbstractVSMEngine;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -11,9 +12,16 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.store.FSDirectory;
 
 /**
@@ -37,6 +45,7 @@ public class LuceneIndexBuilder extends AbstractIndexBuilder {
         iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
         builder = new IndexWriter(FSDirectory.open(Paths.get(indexFolder)), iwc);
 
+        nRead = 0;
         File f = new File(collectionPath);
         if (f.isDirectory()) indexFolder(f);                // A directory containing text files.
         else if (f.getName().endsWith(".zip")) indexZip(f); // A zip file containing compressed text files.
@@ -55,6 +64,29 @@ public class LuceneIndexBuilder extends AbstractIndexBuilder {
         builder.addDocument(doc);
     }
 
+    // A single pass over the terms enumeration, reusing the postings enum
+    protected void saveDocNorms(String indexPath) throws IOException {
+        IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexFolder)));
+        int numDocs = reader.numDocs();
+        double norms[] = new double[numDocs];
+        Terms terms = MultiFields.getTerms(reader, "content");
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator();
+            PostingsEnum postings = null;
+            while (termsEnum.next() != null) {
+                double idf = AbstractVSMEngine.idf(termsEnum.docFreq(), numDocs);
+                postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+                int docID;
+                while ((docID = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    double w = AbstractVSMEngine.tf(postings.freq()) * idf;
+                    norms[docID] += w * w;
+                }
+            }
+        }
+        reader.close();
+        saveDocNorms(indexPath, norms);
+    }
+
     protected Index getCoreIndex() throws IOException {
         return new LuceneIndex(indexFolder);
     }
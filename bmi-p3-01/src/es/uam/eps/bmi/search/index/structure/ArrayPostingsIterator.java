@@ -0,0 +1,52 @@
+package es.uam.eps.bmi.search.index.structure;
+
+/**
+ * Iterator over postings held in parallel arrays of docIDs and frequencies,
+ * sorted by docID. Posting objects are only created for the postings returned.
+ *
+ * @author pablo
+ */
+public class ArrayPostingsIterator implements PostingsListIterator {
+    protected int docIDs[];
+    protected int freqs[];
+    int size;
+    int pos;
+
+    public ArrayPostingsIterator(int ids[], int f[], int n) {
+        docIDs = ids;
+        freqs = f;
+        size = n;
+    }
+
+    public boolean hasNext() {
+        return pos < size;
+    }
+
+    public Posting next() {
+        return posting(pos++);
+    }
+
+    protected Posting posting(int i) {
+        return new Posting(docIDs[i], freqs[i]);
+    }
+
+    // Galloping search from the current position, then binary search within the last gap
+    public Posting nextGEQ(int docID) {
+        if (pos >= size) return null;
+        if (docIDs[pos] >= docID) return next();
+        int low = pos, step = 1;
+        while (low + step < size && docIDs[low + step] < docID) {
+            low += step;
+            step <<= 1;
+        }
+        int high = Math.min(low + step, size);
+        // docIDs[low] < docID, and docIDs[high] >= docID or high == size
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (docIDs[mid] < docID) low = mid;
+            else high = mid;
+        }
+        pos = high;
+        return hasNext()? next() : null;
+    }
+}
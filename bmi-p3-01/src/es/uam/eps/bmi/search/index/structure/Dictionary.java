@@ -12,4 +12,5 @@ public interface Dictionary extends Serializable {
     public PostingsList getPostings(String term) throws IOException;
     public Collection<String> getAllTerms();
     public long getDocFreq(String term) throws IOException;
+    public long getTotalFreq(String term) throws IOException;
 }
@@ -1,5 +1,7 @@
 package es.uam.eps.bmi.search.index.structure;
 
+import java.io.IOException;
+
 /**
  *
  * @author pablo
@@ -7,4 +9,6 @@ package es.uam.eps.bmi.search.index.structure;
 public interface EditableDictionary extends Dictionary {
 //    public void add(String term, PostingsList postings);
     public void add(String term, int docID);
+    // Appends all postings of partial shifting its docIDs by docOffset, which must exceed every docID already here
+    public void addAll(Dictionary partial, int docOffset) throws IOException;
 }
@@ -1,19 +1,21 @@
 package es.uam.eps.bmi.search.index.structure;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  *
  * @author pablo
  */
 public class EditablePostingsList implements PostingsList, Serializable {
-    protected List<Posting> postings;
+    // Parallel growable arrays, to avoid one Posting object per entry
+    protected int docIDs[];
+    protected int freqs[];
+    protected int size;
 
     public EditablePostingsList() {
-        postings = new ArrayList<Posting>();
+        docIDs = new int[1];
+        freqs = new int[1];
     }
     
     public EditablePostingsList(int docID) {
@@ -22,24 +24,48 @@ public class EditablePostingsList implements PostingsList, Serializable {
     }
     
     public int size() {
-        return postings.size();
+        return size;
     }
 
-    public Iterator<Posting> iterator() {
-        return postings.iterator();
+    public int getDocID(int i) {
+        return docIDs[i];
+    }
+
+    public int getFreq(int i) {
+        return freqs[i];
+    }
+
+    public PostingsListIterator iterator() {
+        return new ArrayPostingsIterator(docIDs, freqs, size);
     }
     
     // docIDs are supposed to be added by increasing docID
     public void add(int docID, long freq) {
-        add(new Posting(docID, freq));
+        if (size == docIDs.length) {
+            int capacity = size + (size >> 1) + 1;
+            docIDs = Arrays.copyOf(docIDs, capacity);
+            freqs = Arrays.copyOf(freqs, capacity);
+        }
+        docIDs[size] = docID;
+        freqs[size] = (int) freq;
+        size++;
     }
+
     public void add(int docID) {
-        if (!postings.isEmpty() && docID == postings.get(postings.size() - 1).getDocID())
-        postings.get(postings.size() - 1).add1();
+        if (size > 0 && docID == docIDs[size - 1])
+        freqs[size - 1]++;
         else add(docID, 1);
     }
 
-    void add(Posting posting) {
-        postings.add(posting);
+    public long getTotalFreq() {
+        long total = 0;
+        for (int i = 0; i < size; i++) total += freqs[i];
+        return total;
+    }
+
+    // Appends all the postings of partial, with docIDs shifted by docOffset
+    public void addAll(EditablePostingsList partial, int docOffset) {
+        for (int i = 0; i < partial.size; i++)
+            add(partial.docIDs[i] + docOffset, partial.freqs[i]);
     }
 }
@@ -6,4 +6,5 @@ package es.uam.eps.bmi.search.index.structure;
  */
 public interface PostingsList extends Iterable<Posting> {
     public int size();
+    public PostingsListIterator iterator();
 }
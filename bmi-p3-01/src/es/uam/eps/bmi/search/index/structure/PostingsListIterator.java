@@ -7,4 +7,6 @@ import java.util.Iterator;
  * @author pablo
  */
 public interface PostingsListIterator extends Iterator<Posting>{
+    // Skips to and returns the next posting with docID >= target, or null when there is none
+    public Posting nextGEQ(int docID);
 }
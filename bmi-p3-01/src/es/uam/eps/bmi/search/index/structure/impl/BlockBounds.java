@@ -0,0 +1,101 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import es.uam.eps.bmi.search.vsm.AbstractVSMEngine;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Score bounds of the blocks of a postings file being written in one pass,
+ * when the document norms are not known yet: they add up the weights of every
+ * term, so they are only known once all the lists are written. The lists are
+ * written with a placeholder for the bound of each block, and only where each
+ * list starts and where each placeholder is are kept; once the norms are
+ * known, write() reads the lists back from the file and fills in each bound as
+ * the largest tf / norm of the block. Bounding a block by its largest tf over
+ * the lowest norm in its docID range instead is too loose for WAND to skip
+ * anything.
+ *
+ * @author pablo
+ */
+public class BlockBounds {
+    long skipsAddress;
+    // Per list: where it starts and the idf of its term
+    long listAddresses[] = new long[256];
+    double idfs[] = new double[256];
+    int nLists;
+    // Per block: where its bound goes
+    long addresses[] = new long[256];
+    int n;
+
+    // Before writing a list at the given address of the file
+    public void startList(long address, double idf) {
+        if (nLists == listAddresses.length) {
+            listAddresses = Arrays.copyOf(listAddresses, 2 * nLists);
+            idfs = Arrays.copyOf(idfs, 2 * nLists);
+        }
+        listAddresses[nLists] = address;
+        idfs[nLists++] = idf;
+    }
+
+    // The skip table of the list starts at offset from the start of the list
+    void startSkips(int offset) {
+        skipsAddress = listAddresses[nLists - 1] + offset;
+    }
+
+    // A block whose bound goes at offset from the start of the skip table
+    void add(int offset) {
+        if (n == addresses.length) addresses = Arrays.copyOf(addresses, 2 * n);
+        addresses[n++] = skipsAddress + offset;
+    }
+
+    // Writes the bounds into the postings file, returning the largest bound times the idf of its term
+    public double write(String path, double docNorms[]) throws IOException {
+        double maxScore = 0;
+        MappedPostingsFile postings = new MappedPostingsFile(path);
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            MappedByteBuffer chunks[] = new MappedByteBuffer[(int) ((length + MappedPostingsFile.CHUNK_SIZE - 1) >>> MappedPostingsFile.CHUNK_BITS)];
+            int b = 0;
+            for (int l = 0; l < nLists; l++) {
+                // The placeholders are read as bounds of 0, and only the postings are used
+                PostingsListIterator iterator = PostingsCodec.readBlockPostings(postings.open(listAddresses[l]), false, true).iterator();
+                while (iterator.hasNext()) {
+                    double max = 0;
+                    for (int i = 0; i < PostingsCodec.BLOCK_SIZE && iterator.hasNext(); i++) {
+                        Posting p = iterator.next();
+                        max = Math.max(max, AbstractVSMEngine.tf(p.getFreq()) / docNorms[p.getDocID()]);
+                    }
+                    // Rounded up, so that the bound is never below a score
+                    float bound = (float) max;
+                    if (bound < max) bound = Math.nextUp(bound);
+                    maxScore = Math.max(maxScore, bound * idfs[l]);
+
+                    int bits = Float.floatToIntBits(bound);
+                    for (int i = 0; i < 4; i++) {
+                        long address = addresses[b] + i;
+                        int chunk = (int) (address >>> MappedPostingsFile.CHUNK_BITS);
+                        if (chunks[chunk] == null) {
+                            long start = (long) chunk << MappedPostingsFile.CHUNK_BITS;
+                            chunks[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(MappedPostingsFile.CHUNK_SIZE, length - start));
+                        }
+                        // Big-endian, as DataOutput writes floats
+                        chunks[chunk].put((int) (address & (MappedPostingsFile.CHUNK_SIZE - 1)), (byte) (bits >>> (24 - 8 * i)));
+                    }
+                    b++;
+                }
+            }
+            for (MappedByteBuffer chunk : chunks)
+                if (chunk != null) chunk.force();
+        } finally {
+            file.close();
+        }
+        return maxScore;
+    }
+}
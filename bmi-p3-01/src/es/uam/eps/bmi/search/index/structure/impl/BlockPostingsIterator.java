@@ -0,0 +1,106 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import es.uam.eps.bmi.search.index.structure.positional.IntPositionsList;
+import es.uam.eps.bmi.search.index.structure.positional.PositionalPostingImpl;
+import java.nio.ByteBuffer;
+
+/**
+ *
+ * @author pablo
+ */
+public class BlockPostingsIterator implements PostingsListIterator {
+    BlockPostingsList list;
+    ByteBuffer data;
+    int block = -1;
+    int blockLength;
+    int pos;
+    int docIDs[] = new int[PostingsCodec.BLOCK_SIZE];
+    int freqs[] = new int[PostingsCodec.BLOCK_SIZE];
+    int positionStarts[];
+    int positions[];
+
+    public BlockPostingsIterator(BlockPostingsList l) {
+        list = l;
+        data = l.data.duplicate();
+        if (l.positional) {
+            positionStarts = new int[PostingsCodec.BLOCK_SIZE + 1];
+            positions = new int[PostingsCodec.BLOCK_SIZE];
+        }
+    }
+
+    public boolean hasNext() {
+        return pos < blockLength || block + 1 < list.lastDocs.length;
+    }
+
+    public Posting next() {
+        if (pos == blockLength) decode(block + 1);
+        return posting(pos++);
+    }
+
+    public Posting nextGEQ(int docID) {
+        int lastDocs[] = list.lastDocs;
+        // Exhausted by an earlier call
+        if (block >= lastDocs.length) return null;
+        if (block < 0 || pos == blockLength || lastDocs[block] < docID) {
+            // Binary search the skip table for the first later block reaching docID
+            int low = block + 1, high = lastDocs.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lastDocs[mid] < docID) low = mid + 1;
+                else high = mid;
+            }
+            if (low == lastDocs.length) {
+                block = lastDocs.length;
+                pos = blockLength = 0;
+                return null;
+            }
+            decode(low);
+        }
+        // The block ends with lastDocs[block] >= docID
+        while (docIDs[pos] < docID) pos++;
+        return posting(pos++);
+    }
+
+    void decode(int b) {
+        block = b;
+        pos = 0;
+        blockLength = Math.min(PostingsCodec.BLOCK_SIZE, list.length - b * PostingsCodec.BLOCK_SIZE);
+        data.position(list.offsets[b]);
+
+        PostingsCodec.unpack(data, docIDs, blockLength);
+        int docID = b == 0? 0 : list.lastDocs[b - 1];
+        for (int i = 0; i < blockLength; i++) {
+            docID += docIDs[i];
+            docIDs[i] = docID;
+        }
+        PostingsCodec.unpack(data, freqs, blockLength);
+        for (int i = 0; i < blockLength; i++) freqs[i]++;
+
+        if (list.positional) {
+            // A new pool per block, since postings already returned keep views of the previous one
+            positions = new int[positions.length];
+            int n = 0;
+            for (int i = 0; i < blockLength; i++) {
+                positionStarts[i] = n;
+                if (n + freqs[i] > positions.length) {
+                    int grown[] = new int[Math.max(2 * positions.length, n + freqs[i])];
+                    System.arraycopy(positions, 0, grown, 0, n);
+                    positions = grown;
+                }
+                int p = 0;
+                for (int j = 0; j < freqs[i]; j++) {
+                    p += PostingsCodec.readVInt(data);
+                    positions[n++] = p;
+                }
+            }
+            positionStarts[blockLength] = n;
+        }
+    }
+
+    Posting posting(int i) {
+        if (!list.positional) return new Posting(docIDs[i], freqs[i]);
+        return new PositionalPostingImpl(docIDs[i], freqs[i], new IntPositionsList(positions, positionStarts[i], freqs[i]));
+    }
+}
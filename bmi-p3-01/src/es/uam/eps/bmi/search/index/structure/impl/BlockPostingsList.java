@@ -0,0 +1,47 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import java.nio.ByteBuffer;
+
+/**
+ * Postings list kept in its encoded block form (see PostingsCodec), decoded
+ * one block at a time while iterated.
+ *
+ * @author pablo
+ */
+public class BlockPostingsList implements PostingsList {
+    int length;
+    int lastDocs[];
+    int offsets[];
+    float bounds[];
+    ByteBuffer data;
+    boolean positional;
+
+    public BlockPostingsList(int n, int last[], int off[], float b[], ByteBuffer buffer, boolean pos) {
+        length = n;
+        lastDocs = last;
+        offsets = off;
+        bounds = b;
+        data = buffer;
+        positional = pos;
+    }
+
+    public int size() {
+        return length;
+    }
+
+    // Last docID of each block, for callers that skip whole blocks
+    public int[] getBlockLastDocs() {
+        return lastDocs;
+    }
+
+    // Upper bound of tf / document norm in each block, or null if the list was written without them
+    public float[] getBlockBounds() {
+        return bounds;
+    }
+
+    public PostingsListIterator iterator() {
+        return new BlockPostingsIterator(this);
+    }
+}
@@ -0,0 +1,46 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Deleted documents of an index segment, as a bitset over its docIDs: the
+ * int number of 64-bit words followed by the words. Segments are never
+ * modified, so every new set of deletions is written to a new file.
+ *
+ * @author pablo
+ */
+public class DeletedDocsFile {
+
+    public static BitSet read(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        try {
+            long words[] = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+            return BitSet.valueOf(words);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void write(String path, BitSet deleted) throws IOException {
+        long words[] = deleted.toLongArray();
+        FileOutputStream file = new FileOutputStream(path);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        try {
+            out.writeInt(words.length);
+            for (long w : words) out.writeLong(w);
+            out.flush();
+            // Must be on disk before a manifest refers to it
+            file.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+}
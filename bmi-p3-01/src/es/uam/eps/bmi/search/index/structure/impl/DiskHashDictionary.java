@@ -4,13 +4,11 @@ import es.uam.eps.bmi.search.index.Config;
 import es.uam.eps.bmi.search.index.NoIndexException;
 import es.uam.eps.bmi.search.index.structure.Dictionary;
 import es.uam.eps.bmi.search.index.structure.EditablePostingsList;
+import es.uam.eps.bmi.search.index.structure.Posting;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.io.RandomAccessFile;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Scanner;
@@ -21,56 +19,119 @@ import java.util.TreeMap;
  * @author pablo
  */
 public class DiskHashDictionary implements Dictionary {
-    Map<String,Long> termPostings;
+    Map<String,TermInfo> termPostings;
     String indexFolder;
+    int format = PostingsCodec.CURRENT;
+    transient MappedPostingsFile postingsFile;
+    // Binary dictionaries are read from their mapped files instead of loaded into termPostings
+    transient boolean binary;
+    transient TermDictionaryFile sortedTerms;
+    // Point lookups use the perfect hash when there is one, and sortedTerms is only opened to list terms
+    transient TermHashFile termHash;
+    // Mapped on load anyway, so that the index can be read even if its files are deleted afterwards
+    transient MappedPostingsFile dictionaryFile;
 
     public DiskHashDictionary(String path) {
         indexFolder = path;
-        termPostings = new TreeMap<String,Long>();
+        termPostings = new TreeMap<String,TermInfo>();
     }    
 
     public PostingsList getPostings(String term) throws IOException {
-        EditablePostingsList postings = new EditablePostingsList();
-        if (!termPostings.containsKey(term)) return postings;
-        RandomAccessFile postingsFile = new RandomAccessFile(indexFolder + Config.postingsFileName, "r");
-        postingsFile.seek(termPostings.get(term));
-        int length = postingsFile.readInt();
-        while (length-- > 0)
-            postings.add(postingsFile.readInt(), postingsFile.readLong());
-        postingsFile.close();
-        return postings;
+        long address = address(term);
+        if (address < 0) return new EditablePostingsList();
+        return readPostings(address, false);
     }
 
-    public void add(String term, long address) {
-        termPostings.put(term, address);
+    // Postings address of the term, or -1 if absent
+    long address(String term) throws IOException {
+        TermInfo info = info(term);
+        return info == null? -1 : info.address;
+    }
+
+    // Dictionary entry of the term, or null if absent
+    TermInfo info(String term) throws IOException {
+        if (termHash != null) return termHash.get(term);
+        if (binary) return sortedTerms().get(term);
+        return termPostings.get(term);
+    }
+
+    // Lists are not decoded here but while they are iterated
+    PostingsList readPostings(long address, boolean positional) throws IOException {
+        MappedPostingsFile.Input in = openPostings(address);
+        if (format >= PostingsCodec.BLOCKS)
+            return PostingsCodec.readBlockPostings(in, positional, format == PostingsCodec.BOUNDED_BLOCKS);
+        int length = format == PostingsCodec.LEGACY? in.readInt() : PostingsCodec.readVInt(in);
+        return new StreamPostingsList(postingsFile, in.position(), length, format, positional);
+    }
+
+    MappedPostingsFile.Input openPostings(long address) {
+        return postingsFile.open(address);
+    }
+
+    public void add(String term, long address, int docFreq, long totalFreq) {
+        termPostings.put(term, new TermInfo(address, docFreq, totalFreq));
     }
     
     public Collection<String> getAllTerms() {
-        return termPostings.keySet();
+        if (!binary) return termPostings.keySet();
+        try {
+            return sortedTerms().terms();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return termPostings.keySet();
+        }
+    }
+
+    synchronized TermDictionaryFile sortedTerms() throws IOException {
+        if (sortedTerms == null) sortedTerms = new TermDictionaryFile(dictionaryFile);
+        return sortedTerms;
     }
     
     public void load() throws IOException {
         File f = new File(indexFolder + Config.dictionaryFileName);
         if (!f.exists()) throw new NoIndexException(indexFolder);
-        Scanner scn = new Scanner(new FileInputStream(f));
-        while(scn.hasNext()) {
-            String s[] = scn.nextLine().split("\t");
-            termPostings.put(s[0], new Long(s[1]));
+        binary = TermDictionaryFile.isBinary(f);
+        if (binary) {
+            dictionaryFile = new MappedPostingsFile(f.getPath());
+            File hash = new File(indexFolder + Config.termHashFileName);
+            if (hash.exists()) termHash = new TermHashFile(hash.getPath());
+            else sortedTerms();
+        }
+        else {
+            // Text dictionary of older indexes
+            Scanner scn = new Scanner(new FileInputStream(f));
+            while(scn.hasNext()) {
+                String s[] = scn.nextLine().split("\t");
+                termPostings.put(s[0], new TermInfo(new Long(s[1])));
+            }
+            scn.close();
         }
+        postingsFile = new MappedPostingsFile(indexFolder + Config.postingsFileName);
+        format = PostingsCodec.readVersion(postingsFile.open(0), postingsFile.length());
     }
 
-    public void save() throws FileNotFoundException  {
-        PrintStream dictFile = new PrintStream(indexFolder + Config.dictionaryFileName);
-        for (String term : termPostings.keySet())
-            dictFile.println(term + "\t" + termPostings.get(term));
-        dictFile.close();
+    public void save() throws IOException  {
+        TermDictionaryFile.write(indexFolder + Config.dictionaryFileName, termPostings);
+        TermHashFile.write(indexFolder + Config.termHashFileName, termPostings);
     }
 
     @Override
     public long getDocFreq(String term) throws IOException {
-        if (!termPostings.containsKey(term)) return 0;
-        RandomAccessFile postingsFile = new RandomAccessFile(indexFolder + Config.postingsFileName, "r");
-        postingsFile.seek(termPostings.get(term));
-        return postingsFile.readInt();
+        TermInfo info = info(term);
+        if (info == null) return 0;
+        if (info.hasStats()) return info.docFreq;
+        // Dictionaries written without statistics
+        MappedPostingsFile.Input in = openPostings(info.address);
+        return format == PostingsCodec.LEGACY? in.readInt() : PostingsCodec.readVInt(in);
+    }
+
+    @Override
+    public long getTotalFreq(String term) throws IOException {
+        TermInfo info = info(term);
+        if (info == null) return 0;
+        if (info.hasStats()) return info.totalFreq;
+        long freq = 0;
+        for (Posting p : getPostings(term)) freq += p.getFreq();
+        return freq;
     }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Scanner;
+
+/**
+ * Document norms of an index, one double per docID after a header (magic,
+ * version byte, int number of documents), read from the memory-mapped file.
+ * Text files of older indexes, one norm per line, are loaded into an array.
+ *
+ * @author pablo
+ */
+public class DocNormsFile {
+    public static final int MAGIC = 0x424D494E; // "BMIN"
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 9;
+
+    MappedPostingsFile file;
+    double norms[];
+
+    public DocNormsFile(String path, int numDocs) throws IOException {
+        File f = new File(path);
+        file = new MappedPostingsFile(path);
+        if (file.length() >= HEADER_SIZE && file.getInt(0) == MAGIC) {
+            int version = file.open(4).readByte();
+            if (version != VERSION) throw new IOException("Unsupported document norms version " + version);
+            return;
+        }
+        file = null;
+        Scanner scn = new Scanner(f);
+        norms = new double[numDocs];
+        for (int docID = 0; docID < norms.length; docID++)
+            norms[docID] = new Double(scn.nextLine());
+        scn.close();
+    }
+
+    public double get(int docID) {
+        if (norms != null) return norms[docID];
+        return Double.longBitsToDouble(file.getLong(HEADER_SIZE + 8L * docID));
+    }
+
+    public static void write(String path, double norms[]) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(norms.length);
+        for (double norm : norms) out.writeDouble(norm);
+        out.close();
+    }
+}
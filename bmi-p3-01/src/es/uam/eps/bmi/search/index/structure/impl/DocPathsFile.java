@@ -0,0 +1,77 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Document paths of an index: a header (magic, version byte, int number of
+ * documents), the long offset of every path plus the end of the last one,
+ * and the UTF-8 bytes of all the paths. The file is memory-mapped and a path
+ * is only decoded when asked for. Text files of older indexes (number of
+ * documents, then a path per line) are loaded into an array.
+ *
+ * @author pablo
+ */
+public class DocPathsFile {
+    public static final int MAGIC = 0x424D4953; // "BMIS"
+    public static final int VERSION = 1;
+    static final int HEADER_SIZE = 9;
+
+    MappedPostingsFile file;
+    int size;
+    String paths[];
+
+    public DocPathsFile(String path) throws IOException {
+        file = new MappedPostingsFile(path);
+        if (file.length() >= HEADER_SIZE && file.getInt(0) == MAGIC) {
+            MappedPostingsFile.Input in = file.open(4);
+            int version = in.readByte();
+            if (version != VERSION) throw new IOException("Unsupported document paths version " + version);
+            size = in.readInt();
+            return;
+        }
+        file = null;
+        Scanner scn = new Scanner(new File(path));
+        size = new Integer(scn.nextLine());
+        paths = new String[size];
+        for (int docID = 0; docID < size; docID++)
+            paths[docID] = scn.nextLine();
+        scn.close();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String get(int docID) throws IOException {
+        if (paths != null) return paths[docID];
+        long start = file.getLong(HEADER_SIZE + 8L * docID);
+        long end = file.getLong(HEADER_SIZE + 8L * (docID + 1));
+        byte bytes[] = new byte[(int) (end - start)];
+        file.open(HEADER_SIZE + 8L * (size + 1) + start).readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void write(String path, List<String> paths) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(paths.size());
+        byte bytes[][] = new byte[paths.size()][];
+        long offset = 0;
+        for (int docID = 0; docID < bytes.length; docID++) {
+            bytes[docID] = paths.get(docID).getBytes(StandardCharsets.UTF_8);
+            out.writeLong(offset);
+            offset += bytes[docID].length;
+        }
+        out.writeLong(offset);
+        for (byte b[] : bytes) out.write(b);
+        out.close();
+    }
+}
@@ -1,36 +1,59 @@
 package es.uam.eps.bmi.search.index.structure.impl;
 
+import es.uam.eps.bmi.search.index.structure.Dictionary;
 import es.uam.eps.bmi.search.index.structure.EditableDictionary;
 import es.uam.eps.bmi.search.index.structure.EditablePostingsList;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  *
  * @author pablo
  */
 public class HashDictionary implements EditableDictionary {
-    protected Map<String,EditablePostingsList> termPostings;
+    // Postings are indexed by term ID
+    protected TermTable terms;
+    protected EditablePostingsList termPostings[];
 
     public HashDictionary() {
-        termPostings = new HashMap<String,EditablePostingsList>();
+        terms = new TermTable();
+        termPostings = new EditablePostingsList[16];
     }    
 
     public PostingsList getPostings(String term) {
-        return termPostings.get(term);
+        int id = terms.get(term);
+        return id < 0? null : termPostings[id];
     }
 
     // We assume docIDs are inserter by order
     public void add(String term, int docID) {
-        if (termPostings.containsKey(term)) termPostings.get(term).add(docID);
-        else termPostings.put(term, new EditablePostingsList (docID));
+        postings(terms.add(term)).add(docID);
+    }
+
+    // Same as add(term.subSequence(start, end).toString(), docID), without creating the String
+    public void add(CharSequence term, int start, int end, int docID) {
+        postings(terms.add(term, start, end)).add(docID);
     }
 
     public void add(String term, PostingsList postings) {
-        termPostings.put(term, (EditablePostingsList) postings);
+        int id = terms.add(term);
+        postings(id);
+        termPostings[id] = (EditablePostingsList) postings;
+    }
+
+    public void addAll(Dictionary partial, int docOffset) throws IOException {
+        HashDictionary p = (HashDictionary) partial;
+        for (int id = 0; id < p.terms.size(); id++)
+            postings(terms.add(p.terms, id)).addAll(p.termPostings[id], docOffset);
+    }
+
+    // Postings of term id, created if it is new
+    EditablePostingsList postings(int id) {
+        if (id == termPostings.length) termPostings = Arrays.copyOf(termPostings, 2 * id);
+        if (termPostings[id] == null) termPostings[id] = new EditablePostingsList();
+        return termPostings[id];
     }
 
 //    public void addPosting(String term, Posting posting) {
@@ -38,11 +61,18 @@ public class HashDictionary implements EditableDictionary {
 //    }
 
     public Collection<String> getAllTerms() {
-        return termPostings.keySet();
+        return terms.terms();
     }
 
     @Override
     public long getDocFreq(String term) throws IOException {
-        return termPostings.get(term).size();
+        int id = terms.get(term);
+        return id < 0? 0 : termPostings[id].size();
+    }
+
+    @Override
+    public long getTotalFreq(String term) throws IOException {
+        int id = terms.get(term);
+        return id < 0? 0 : termPostings[id].getTotalFreq();
     }
-}
\ No newline at end of file
+}
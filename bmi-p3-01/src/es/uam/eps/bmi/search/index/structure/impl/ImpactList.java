@@ -0,0 +1,47 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Impact-ordered postings of a term (see ImpactsFile), kept encoded and
+ * decoded one segment at a time.
+ *
+ * @author pablo
+ */
+public class ImpactList {
+    int impacts[];
+    int sizes[];
+    int offsets[];
+    ByteBuffer data;
+
+    public ImpactList(int imp[], int sz[], int off[], ByteBuffer buffer) {
+        impacts = imp;
+        sizes = sz;
+        offsets = off;
+        data = buffer;
+    }
+
+    public int numSegments() {
+        return impacts.length;
+    }
+
+    // Segments come by decreasing impact
+    public int impact(int segment) {
+        return impacts[segment];
+    }
+
+    public int size(int segment) {
+        return sizes[segment];
+    }
+
+    // Decodes the docIDs of the segment, in increasing order, into docIDs
+    public void decode(int segment, int docIDs[]) {
+        ByteBuffer in = data.duplicate();
+        in.position(offsets[segment]);
+        int docID = 0;
+        for (int i = 0; i < sizes[segment]; i++) {
+            docID += PostingsCodec.readVInt(in);
+            docIDs[i] = docID;
+        }
+    }
+}
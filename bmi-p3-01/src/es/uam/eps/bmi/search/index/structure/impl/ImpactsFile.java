@@ -0,0 +1,99 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Impact-ordered postings of an index. The impact of a term in a document is
+ * its tf-idf divided by the document norm, quantized to an integer from 1 to
+ * LEVELS in steps of the quantum, which is the largest impact in the index
+ * divided by LEVELS; impacts are rounded up, so that a sum of impacts times
+ * the quantum is never below the sum of the exact ones. The documents of each
+ * term are grouped in segments of equal impact, by decreasing impact.
+ *
+ * Layout: magic, version byte, double quantum, then for each list its vbyte
+ * number of segments, the vbyte impact, number of documents and size in
+ * bytes of every segment, and the segments, each one the vbyte gaps between
+ * its docIDs in increasing order.
+ *
+ * @author pablo
+ */
+public class ImpactsFile {
+    public static final int MAGIC = 0x424D4951; // "BMIQ"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 13;
+    public static final int LEVELS = 255;
+
+    MappedPostingsFile file;
+    double quantum;
+
+    public ImpactsFile(String path) throws IOException {
+        file = new MappedPostingsFile(path);
+        if (file.length() < HEADER_SIZE || file.getInt(0) != MAGIC) throw new IOException("Not an impacts file: " + path);
+        int version = file.open(4).readByte();
+        if (version != VERSION) throw new IOException("Unsupported impacts file version " + version);
+        quantum = Double.longBitsToDouble(file.getLong(5));
+    }
+
+    public double getQuantum() {
+        return quantum;
+    }
+
+    // Reads the segment table; segments are only decoded when asked for
+    public ImpactList read(long address) throws IOException {
+        MappedPostingsFile.Input in = file.open(address);
+        int n = PostingsCodec.readVInt(in);
+        int impacts[] = new int[n];
+        int sizes[] = new int[n];
+        int offsets[] = new int[n + 1];
+        for (int s = 0; s < n; s++) {
+            impacts[s] = PostingsCodec.readVInt(in);
+            sizes[s] = PostingsCodec.readVInt(in);
+            offsets[s + 1] = offsets[s] + PostingsCodec.readVInt(in);
+        }
+        return new ImpactList(impacts, sizes, offsets, in.slice(offsets[n]));
+    }
+
+    public static void writeHeader(DataOutput out, double quantum) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeDouble(quantum);
+    }
+
+    public static int quantize(double impact, double quantum) {
+        return Math.max(1, Math.min(LEVELS, (int) Math.ceil(impact / quantum)));
+    }
+
+    // docIDs in increasing order, with the quantized impact of the term in each one
+    public static void writeList(DataOutput out, int docIDs[], int impacts[], int n) throws IOException {
+        // Counting sort by decreasing impact, which keeps docIDs in order within each impact
+        int starts[] = new int[LEVELS + 2];
+        for (int i = 0; i < n; i++) starts[LEVELS - impacts[i] + 1]++;
+        for (int level = 1; level <= LEVELS + 1; level++) starts[level] += starts[level - 1];
+        int sorted[] = new int[n];
+        int next[] = starts.clone();
+        for (int i = 0; i < n; i++) sorted[next[LEVELS - impacts[i]]++] = docIDs[i];
+
+        int nSegments = 0;
+        for (int level = 0; level <= LEVELS; level++)
+            if (starts[level + 1] > starts[level]) nSegments++;
+        PostingsCodec.writeVInt(out, nSegments);
+        ByteArrayOutputStream segments = new ByteArrayOutputStream();
+        DataOutputStream segmentsOut = new DataOutputStream(segments);
+        for (int level = 0; level <= LEVELS; level++) {
+            if (starts[level + 1] == starts[level]) continue;
+            int start = segments.size();
+            int prev = 0;
+            for (int i = starts[level]; i < starts[level + 1]; i++) {
+                PostingsCodec.writeVInt(segmentsOut, sorted[i] - prev);
+                prev = sorted[i];
+            }
+            PostingsCodec.writeVInt(out, LEVELS - level);
+            PostingsCodec.writeVInt(out, starts[level + 1] - starts[level]);
+            PostingsCodec.writeVInt(out, segments.size() - start);
+        }
+        out.write(segments.toByteArray());
+    }
+}
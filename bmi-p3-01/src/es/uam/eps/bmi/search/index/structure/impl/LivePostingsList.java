@@ -0,0 +1,67 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+
+/**
+ * Postings list of a segment without the postings of its deleted documents.
+ * size() is that of the whole list, deleted documents included, as are the
+ * statistics of the index until a merge purges them.
+ *
+ * @author pablo
+ */
+public class LivePostingsList implements PostingsList {
+    PostingsList postings;
+    BitSet deleted;
+
+    public LivePostingsList(PostingsList p, BitSet d) {
+        postings = p;
+        deleted = d;
+    }
+
+    public int size() {
+        return postings.size();
+    }
+
+    public PostingsListIterator iterator() {
+        return new LivePostingsIterator(postings.iterator());
+    }
+
+    class LivePostingsIterator implements PostingsListIterator {
+        PostingsListIterator it;
+        // Next live posting, read ahead
+        Posting next;
+
+        LivePostingsIterator(PostingsListIterator i) {
+            it = i;
+            next = skipDeleted(it.hasNext()? it.next() : null);
+        }
+
+        Posting skipDeleted(Posting p) {
+            while (p != null && deleted.get(p.getDocID()))
+                p = it.hasNext()? it.next() : null;
+            return p;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Posting next() {
+            if (next == null) throw new NoSuchElementException();
+            Posting p = next;
+            next = skipDeleted(it.hasNext()? it.next() : null);
+            return p;
+        }
+
+        public Posting nextGEQ(int docID) {
+            if (next == null) return null;
+            if (next.getDocID() >= docID) return next();
+            next = skipDeleted(it.nextGEQ(docID));
+            return next == null? null : next();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of an index file (postings, term dictionary, documents),
+ * mapped once per index in chunks of 1 GB so that files over 2 GB can be
+ * mapped too. The chunks are only read with absolute gets and every reader
+ * gets its own cursor, so one instance can be shared by any number of threads.
+ *
+ * @author pablo
+ */
+public class MappedPostingsFile {
+    static final int CHUNK_BITS = 30;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    MappedByteBuffer chunks[];
+    long length;
+
+    public MappedPostingsFile(String path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            length = channel.size();
+            chunks = new MappedByteBuffer[(int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+        } finally {
+            // Mappings remain valid once the file is closed
+            file.close();
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public Input open(long address) {
+        return new Input(new Cursor(address));
+    }
+
+    byte get(long address) {
+        return chunks[(int) (address >>> CHUNK_BITS)].get((int) (address & (CHUNK_SIZE - 1)));
+    }
+
+    // Big-endian absolute reads, as written by DataOutput
+    public long getLong(long address) {
+        int offset = (int) (address & (CHUNK_SIZE - 1));
+        if (offset <= CHUNK_SIZE - 8) return chunks[(int) (address >>> CHUNK_BITS)].getLong(offset);
+        long n = 0;
+        for (int i = 0; i < 8; i++) n = (n << 8) | (get(address + i) & 0xFF);
+        return n;
+    }
+
+    public int getInt(long address) {
+        int offset = (int) (address & (CHUNK_SIZE - 1));
+        if (offset <= CHUNK_SIZE - 4) return chunks[(int) (address >>> CHUNK_BITS)].getInt(offset);
+        return (int) ((getShort(address) & 0xFFFFL) << 16 | (getShort(address + 2) & 0xFFFF));
+    }
+
+    public short getShort(long address) {
+        return (short) ((get(address) & 0xFF) << 8 | (get(address + 1) & 0xFF));
+    }
+
+    public class Input extends DataInputStream {
+        Input(Cursor cursor) {
+            super(cursor);
+        }
+
+        public long position() {
+            return ((Cursor) in).address;
+        }
+
+        // The next n bytes as a buffer, without copying unless they span two chunks
+        public ByteBuffer slice(int n) {
+            return ((Cursor) in).slice(n);
+        }
+    }
+
+    class Cursor extends InputStream {
+        long address;
+
+        Cursor(long a) {
+            address = a;
+        }
+
+        public int read() {
+            return address < length? get(address++) & 0xFF : -1;
+        }
+
+        public int read(byte b[], int off, int len) {
+            if (len == 0) return 0;
+            if (address >= length) return -1;
+            len = (int) Math.min(len, length - address);
+            for (int i = 0; i < len; i++)
+                b[off + i] = get(address++);
+            return len;
+        }
+
+        ByteBuffer slice(int n) {
+            int offset = (int) (address & (CHUNK_SIZE - 1));
+            MappedByteBuffer chunk = chunks[(int) (address >>> CHUNK_BITS)];
+            ByteBuffer buffer;
+            if (offset + n <= chunk.limit()) {
+                buffer = chunk.duplicate();
+                buffer.position(offset);
+                buffer.limit(offset + n);
+                buffer = buffer.slice();
+            }
+            else {
+                byte data[] = new byte[n];
+                for (int i = 0; i < n; i++)
+                    data[i] = get(address + i);
+                buffer = ByteBuffer.wrap(data);
+            }
+            address += n;
+            return buffer;
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package es.uam.eps.bmi.search.index.structure.impl;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
+import es.uam.eps.bmi.search.index.structure.Dictionary;
 import es.uam.eps.bmi.search.index.structure.EditableDictionary;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
@@ -20,32 +20,91 @@ public class PositionalDictionary implements EditableDictionary {
 
 	private static final long serialVersionUID = 1L;
 
-	Map<String, PositionalPostingsList> termPostings;
+	// postings indexadas por el ID de termino de la tabla
+	TermTable terms;
+	PositionalPostingsList[] termPostings;
 
 	public PositionalDictionary() {
-		termPostings = new HashMap<String, PositionalPostingsList>();
+		terms = new TermTable();
+		termPostings = new PositionalPostingsList[16];
 	}
 
 	public void add(String term, int docID, int position) {
-		if (termPostings.containsKey(term))
-			termPostings.get(term).add(docID, position);
-		else
-			termPostings.put(term, new PositionalPostingsList(docID, position));
+		postings(terms.add(term)).add(docID, position);
+	}
+
+	/**
+	 * Agrega la aparicion de un termino dado como rango de caracteres, sin
+	 * crear un String.
+	 * 
+	 * @param term
+	 *            Caracteres que contienen el termino.
+	 * @param start
+	 *            Inicio del termino.
+	 * @param end
+	 *            Fin (exclusivo) del termino.
+	 * @param docID
+	 *            docID.
+	 * @param position
+	 *            Posicion del termino en el documento.
+	 */
+	public void add(CharSequence term, int start, int end, int docID, int position) {
+		postings(terms.add(term, start, end)).add(docID, position);
+	}
+
+	/**
+	 * Postings de un termino, creadas si es nuevo.
+	 * 
+	 * @param id
+	 *            ID del termino.
+	 * @return Lista de postings del termino.
+	 */
+	PositionalPostingsList postings(int id) {
+		if (id == termPostings.length)
+			termPostings = Arrays.copyOf(termPostings, 2 * id);
+		if (termPostings[id] == null)
+			termPostings[id] = new PositionalPostingsList();
+		return termPostings[id];
+	}
+
+	/**
+	 * Agrega las postings posicionales de un diccionario parcial, desplazando
+	 * sus docIDs.
+	 * 
+	 * @param partial
+	 *            Diccionario posicional parcial.
+	 * @param docOffset
+	 *            Desplazamiento de docIDs, mayor que cualquier docID ya
+	 *            agregado.
+	 */
+	@Override
+	public void addAll(Dictionary partial, int docOffset) throws IOException {
+		PositionalDictionary p = (PositionalDictionary) partial;
+		for (int id = 0; id < p.terms.size(); id++)
+			postings(terms.add(p.terms, id)).addAll(p.termPostings[id], docOffset);
 	}
 
 	@Override
 	public PostingsList getPostings(String term) throws IOException {
-		return termPostings.get(term);
+		int id = terms.get(term);
+		return id < 0 ? null : termPostings[id];
 	}
 
 	@Override
 	public Collection<String> getAllTerms() {
-		return termPostings.keySet();
+		return terms.terms();
 	}
 
 	@Override
 	public long getDocFreq(String term) throws IOException {
-		return termPostings.get(term).size();
+		int id = terms.get(term);
+		return id < 0 ? 0 : termPostings[id].size();
+	}
+
+	@Override
+	public long getTotalFreq(String term) throws IOException {
+		int id = terms.get(term);
+		return id < 0 ? 0 : termPostings[id].getTotalFreq();
 	}
 
 	@Override
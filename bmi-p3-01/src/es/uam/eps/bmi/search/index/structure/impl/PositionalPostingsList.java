@@ -1,52 +1,53 @@
 package es.uam.eps.bmi.search.index.structure.impl;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
+import es.uam.eps.bmi.search.index.structure.ArrayPostingsIterator;
+import es.uam.eps.bmi.search.index.structure.EditablePostingsList;
 import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import es.uam.eps.bmi.search.index.structure.positional.IntPositionsList;
 import es.uam.eps.bmi.search.index.structure.positional.PositionalPostingImpl;
-import es.uam.eps.bmi.search.index.structure.positional.lucene.LucenePositionalPostingsList;
 
 /**
- * Lista de Postings Posicionales con iterador.
+ * Lista de Postings Posicionales con iterador. Las posiciones de todas las
+ * postings se guardan seguidas en un unico array (pool); cada posting guarda
+ * donde empiezan las suyas.
  * 
  * @author Alejandro Martin
  * @author Jorge Cifuentes
  *
  */
-public class PositionalPostingsList extends LucenePositionalPostingsList {
+public class PositionalPostingsList extends EditablePostingsList {
 
-	List<PositionalPostingImpl> postings;
+	private static final long serialVersionUID = 1L;
+
+	int[] starts;
+	int[] positions;
+	int nPositions;
 
 	public PositionalPostingsList() {
-		super(null, null, 0);
-		postings = new ArrayList<PositionalPostingImpl>();
+		super();
+		starts = new int[1];
+		positions = new int[1];
 	}
 
 	public PositionalPostingsList(int docID, int position) {
-		super(null, null, 0);
-
-		if (this.postings == null)
-			this.postings = new ArrayList<PositionalPostingImpl>();
-
-		this.postings.add(new PositionalPostingImpl(docID, 1, position));
-	}
-
-	@Override
-	public Iterator<Posting> iterator() {
-		List<Posting> lp = new ArrayList<>();
-
-		for (PositionalPostingImpl ppi : this.postings) {
-			lp.add(ppi);
-		}
-
-		return lp.iterator();
+		this();
+		this.add(docID, position);
 	}
 
 	@Override
-	public int size() {
-		return postings.size();
+	public PostingsListIterator iterator() {
+		final int[] pool = this.positions;
+		final int[] from = this.starts;
+		return new ArrayPostingsIterator(docIDs, freqs, size) {
+			@Override
+			protected Posting posting(int i) {
+				return new PositionalPostingImpl(docIDs[i], freqs[i], new IntPositionsList(pool, from[i], freqs[i]));
+			}
+		};
 	}
 
 	/**
@@ -62,14 +63,15 @@ public class PositionalPostingsList extends LucenePositionalPostingsList {
 
 		// ya existe el posting de este termino para ese docID, actualizar
 		// frecuencia y posiciones
-		if (!postings.isEmpty() && docID == postings.get(postings.size() - 1).getDocID()) {
-			postings.get(postings.size() - 1).addPosition(position);
+		if (size > 0 && docID == docIDs[size - 1]) {
+			freqs[size - 1]++;
 		}
 		// aun no existe, crearlo
 		else {
-			this.postings.add(new PositionalPostingImpl(docID, 1, position));
+			this.newPosting(docID, 1);
 		}
 
+		this.addPosition(position);
 	}
 
 	/**
@@ -83,10 +85,41 @@ public class PositionalPostingsList extends LucenePositionalPostingsList {
 	 *            Posiciones (lista de longitud freq).
 	 */
 	public void add(int doc, long freq, List<Integer> l) {
-		if (this.postings == null)
-			this.postings = new ArrayList<PositionalPostingImpl>();
+		this.newPosting(doc, freq);
+		for (int pos : l)
+			this.addPosition(pos);
+	}
 
-		this.postings.add(new PositionalPostingImpl(doc, freq, l));
+	/**
+	 * Agrega todas las postings (con sus posiciones) de una lista parcial,
+	 * desplazando sus docIDs.
+	 * 
+	 * @param partial
+	 *            Lista posicional parcial.
+	 * @param docOffset
+	 *            Desplazamiento de docIDs.
+	 */
+	@Override
+	public void addAll(EditablePostingsList partial, int docOffset) {
+		PositionalPostingsList p = (PositionalPostingsList) partial;
+		for (int i = 0; i < p.size; i++) {
+			this.newPosting(p.docIDs[i] + docOffset, p.freqs[i]);
+			for (int j = p.starts[i]; j < p.starts[i] + p.freqs[i]; j++)
+				this.addPosition(p.positions[j]);
+		}
+	}
+
+	// posting sin posiciones todavia, que empiezan al final del pool
+	private void newPosting(int docID, long freq) {
+		if (size == starts.length)
+			starts = Arrays.copyOf(starts, size + (size >> 1) + 1);
+		starts[size] = nPositions;
+		super.add(docID, freq);
 	}
 
+	private void addPosition(int position) {
+		if (nPositions == positions.length)
+			positions = Arrays.copyOf(positions, nPositions + (nPositions >> 1) + 1);
+		positions[nPositions++] = position;
+	}
 }
@@ -0,0 +1,230 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.positional.PositionalPostingImpl;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * On-disk postings file format. The file starts with a header (magic number +
+ * format version); files without it are read as the original fixed-width
+ * format. Compressed formats use variable-byte code (vbyte): 7 bits per byte,
+ * high bit set on every byte but the last.
+ *
+ * In the block format each list is its vbyte length, a skip table with one
+ * entry per block of BLOCK_SIZE postings (vbyte gap between the last docIDs of
+ * consecutive blocks, vbyte block size in bytes) and the blocks themselves.
+ * A block holds its docID gaps and its frequencies minus one, each bit-packed
+ * with the width of the largest value in the block (one byte), followed in
+ * positional indexes by the vbyte gaps between the positions of each posting.
+ * In the bounded block format every skip table entry also has a float upper
+ * bound of tf / document norm over the postings of its block, from which
+ * engines get an upper bound of the score of the term in each block.
+ *
+ * @author pablo
+ */
+public class PostingsCodec {
+    public static final int MAGIC = 0x424D4950; // "BMIP"
+    public static final int HEADER_SIZE = 5;
+    public static final int BLOCK_SIZE = 128;
+
+    // int length + (int docID + long freq [+ int positions]) per posting, no header
+    public static final int LEGACY = 0;
+    // vbyte length + (vbyte docID gap + vbyte freq [+ vbyte position gaps]) per posting
+    public static final int VBYTE = 1;
+    // vbyte length + skip table + bit-packed blocks
+    public static final int BLOCKS = 2;
+    // Same with a score bound per skip table entry
+    public static final int BOUNDED_BLOCKS = 3;
+    public static final int CURRENT = BOUNDED_BLOCKS;
+
+    // Files of lists written without block bounds
+    public static void writeHeader(DataOutput out) throws IOException {
+        writeHeader(out, BLOCKS);
+    }
+
+    public static void writeHeader(DataOutput out, int version) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(version);
+    }
+
+    public static int readVersion(DataInput in, long length) throws IOException {
+        if (length < HEADER_SIZE || in.readInt() != MAGIC) return LEGACY;
+        int version = in.readByte();
+        if (version > CURRENT) throw new IOException("Unsupported postings format version " + version);
+        return version;
+    }
+
+    public static void writeVInt(DataOutput out, int n) throws IOException {
+        writeVLong(out, n);
+    }
+
+    public static void writeVLong(DataOutput out, long n) throws IOException {
+        while ((n & ~0x7FL) != 0) {
+            out.writeByte((int) (n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+
+    public static int readVInt(DataInput in) throws IOException {
+        return (int) readVLong(in);
+    }
+
+    public static long readVLong(DataInput in) throws IOException {
+        long n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            n |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return n;
+    }
+
+    public static int readVInt(ByteBuffer in) {
+        int n = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            n |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return n;
+    }
+
+    // Postings are assumed to be sorted by increasing docID; returns the sum of their frequencies
+    public static long writePostings(DataOutput out, PostingsList postings, boolean positional) throws IOException {
+        return writePostings(out, postings, positional, (BlockBounds) null);
+    }
+
+    // With bounds, the skip table gets a placeholder for the bound of each block, which bounds fills in later
+    public static long writePostings(DataOutput out, PostingsList postings, boolean positional, BlockBounds bounds) throws IOException {
+        writeVInt(out, postings.size());
+        if (bounds != null) bounds.startSkips(vIntSize(postings.size()));
+
+        ByteArrayOutputStream skips = new ByteArrayOutputStream();
+        DataOutputStream skipsOut = new DataOutputStream(skips);
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        DataOutputStream blocksOut = new DataOutputStream(blocks);
+
+        Posting block[] = new Posting[BLOCK_SIZE];
+        int values[] = new int[BLOCK_SIZE];
+        int n = 0, lastDocID = 0;
+        long totalFreq = 0;
+        for (Posting p : postings) {
+            totalFreq += p.getFreq();
+            block[n++] = p;
+            if (n == BLOCK_SIZE) {
+                lastDocID = writeBlock(skipsOut, blocks, blocksOut, block, n, lastDocID, values, positional, bounds);
+                n = 0;
+            }
+        }
+        if (n > 0) writeBlock(skipsOut, blocks, blocksOut, block, n, lastDocID, values, positional, bounds);
+
+        out.write(skips.toByteArray());
+        out.write(blocks.toByteArray());
+        return totalFreq;
+    }
+
+    static int writeBlock(DataOutputStream skipsOut, ByteArrayOutputStream blocks, DataOutput out,
+            Posting block[], int n, int lastDocID, int values[], boolean positional, BlockBounds bounds) throws IOException {
+        int start = blocks.size();
+
+        int prev = lastDocID;
+        for (int i = 0; i < n; i++) {
+            values[i] = block[i].getDocID() - prev;
+            prev = block[i].getDocID();
+        }
+        pack(out, values, n);
+        for (int i = 0; i < n; i++)
+            values[i] = (int) block[i].getFreq() - 1;
+        pack(out, values, n);
+
+        if (positional)
+            for (int i = 0; i < n; i++) {
+                List<Integer> positions = ((PositionalPostingImpl) block[i]).getPositions();
+                int lastPos = 0;
+                for (int j = 0; j < block[i].getFreq(); j++) {
+                    writeVInt(out, positions.get(j) - lastPos);
+                    lastPos = positions.get(j);
+                }
+            }
+
+        writeVInt(skipsOut, prev - lastDocID);
+        writeVInt(skipsOut, blocks.size() - start);
+        if (bounds != null) {
+            bounds.add(skipsOut.size());
+            skipsOut.writeFloat(0);
+        }
+        return prev;
+    }
+
+    static int vIntSize(long n) {
+        int size = 1;
+        while ((n >>>= 7) != 0) size++;
+        return size;
+    }
+
+    // One byte with the bit width, then the n values packed least significant bits first
+    static void pack(DataOutput out, int values[], int n) throws IOException {
+        int or = 0;
+        for (int i = 0; i < n; i++) or |= values[i];
+        int bits = 32 - Integer.numberOfLeadingZeros(or);
+        out.writeByte(bits);
+
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < n; i++) {
+            acc |= (values[i] & 0xFFFFFFFFL) << accBits;
+            accBits += bits;
+            while (accBits >= 8) {
+                out.writeByte((int) acc);
+                acc >>>= 8;
+                accBits -= 8;
+            }
+        }
+        if (accBits > 0) out.writeByte((int) acc);
+    }
+
+    static void unpack(ByteBuffer in, int values[], int n) {
+        int bits = in.get();
+        long mask = (1L << bits) - 1;
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < n; i++) {
+            while (accBits < bits) {
+                acc |= (long) (in.get() & 0xFF) << accBits;
+                accBits += 8;
+            }
+            values[i] = (int) (acc & mask);
+            acc >>>= bits;
+            accBits -= bits;
+        }
+    }
+
+    // Reads the skip table; blocks are left in the mapped file and only decoded when iterated
+    public static BlockPostingsList readBlockPostings(MappedPostingsFile.Input in, boolean positional, boolean bounded) throws IOException {
+        int length = readVInt(in);
+        int nBlocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int lastDocs[] = new int[nBlocks];
+        int offsets[] = new int[nBlocks + 1];
+        float bounds[] = bounded? new float[nBlocks] : null;
+        int lastDocID = 0;
+        for (int b = 0; b < nBlocks; b++) {
+            lastDocID += readVInt(in);
+            lastDocs[b] = lastDocID;
+            offsets[b + 1] = offsets[b] + readVInt(in);
+            if (bounded) bounds[b] = in.readFloat();
+        }
+        return new BlockPostingsList(length, lastDocs, offsets, bounds, in.slice(offsets[nBlocks]), positional);
+    }
+}
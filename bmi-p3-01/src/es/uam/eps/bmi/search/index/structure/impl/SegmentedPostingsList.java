@@ -0,0 +1,75 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Postings of a term across the segments of an index: the lists of the
+ * segments one after another, with the docIDs of each one shifted by the first
+ * docID of its segment. Segments are only opened when iterated.
+ *
+ * @author pablo
+ */
+public class SegmentedPostingsList implements PostingsList {
+    PostingsList lists[];
+    int bases[];
+    int size;
+
+    // bases[i] is the first docID of the segment of lists[i], in increasing order
+    public SegmentedPostingsList(PostingsList l[], int b[]) {
+        lists = l;
+        bases = b;
+        for (PostingsList list : lists) size += list.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public PostingsListIterator iterator() {
+        return new SegmentedPostingsIterator();
+    }
+
+    class SegmentedPostingsIterator implements PostingsListIterator {
+        int current;
+        // Iterator of lists[current], null until it is opened
+        PostingsListIterator it;
+
+        public boolean hasNext() {
+            while (current < lists.length) {
+                if (it == null) it = lists[current].iterator();
+                if (it.hasNext()) return true;
+                current++;
+                it = null;
+            }
+            return false;
+        }
+
+        public Posting next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return shift(it.next());
+        }
+
+        public Posting nextGEQ(int docID) {
+            // Segments that end before docID are skipped without opening them
+            while (current + 1 < lists.length && bases[current + 1] <= docID) {
+                current++;
+                it = null;
+            }
+            if (!hasNext()) return null;
+            Posting p = it.nextGEQ(docID - bases[current]);
+            if (p != null) return shift(p);
+            // The following segments only have greater docIDs
+            current++;
+            it = null;
+            return hasNext()? next() : null;
+        }
+
+        Posting shift(Posting p) {
+            int base = bases[current];
+            return base == 0? p : new Posting(p.getDocID() + base, p.getFreq());
+        }
+    }
+}
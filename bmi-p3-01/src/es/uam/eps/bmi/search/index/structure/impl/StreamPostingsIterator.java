@@ -0,0 +1,76 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import es.uam.eps.bmi.search.index.structure.positional.IntPositionsList;
+import es.uam.eps.bmi.search.index.structure.positional.PositionalPostingImpl;
+import java.io.IOException;
+
+/**
+ *
+ * @author pablo
+ */
+public class StreamPostingsIterator implements PostingsListIterator {
+    StreamPostingsList list;
+    MappedPostingsFile.Input in;
+    boolean legacy;
+    int remaining;
+    int docID;
+    long freq;
+    int positions[];
+
+    public StreamPostingsIterator(StreamPostingsList l) {
+        list = l;
+        in = l.file.open(l.address);
+        legacy = l.format == PostingsCodec.LEGACY;
+        remaining = l.length;
+        if (l.positional) positions = new int[16];
+    }
+
+    public boolean hasNext() {
+        return remaining > 0;
+    }
+
+    public Posting next() {
+        try {
+            advance();
+            return posting();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    // Postings passed over are decoded but never materialized
+    public Posting nextGEQ(int target) {
+        try {
+            while (hasNext()) {
+                advance();
+                if (docID >= target) return posting();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        return null;
+    }
+
+    void advance() throws IOException {
+        remaining--;
+        docID = legacy? in.readInt() : docID + PostingsCodec.readVInt(in);
+        freq = legacy? in.readLong() : PostingsCodec.readVLong(in);
+        if (!list.positional) return;
+        if (freq > positions.length) positions = new int[(int) Math.max(freq, 2 * positions.length)];
+        int pos = 0;
+        for (int i = 0; i < freq; i++) {
+            pos = legacy? in.readInt() : pos + PostingsCodec.readVInt(in);
+            positions[i] = pos;
+        }
+    }
+
+    Posting posting() {
+        if (!list.positional) return new Posting(docID, freq);
+        int copy[] = new int[(int) freq];
+        System.arraycopy(positions, 0, copy, 0, copy.length);
+        return new PositionalPostingImpl(docID, freq, new IntPositionsList(copy, 0, copy.length));
+    }
+}
@@ -0,0 +1,35 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+
+/**
+ * Postings list in one of the sequential formats (legacy or vbyte) of a
+ * mapped postings file, decoded one posting at a time while iterated.
+ *
+ * @author pablo
+ */
+public class StreamPostingsList implements PostingsList {
+    MappedPostingsFile file;
+    long address;
+    int length;
+    int format;
+    boolean positional;
+
+    // address is that of the first posting, right after the list length
+    public StreamPostingsList(MappedPostingsFile f, long a, int n, int fmt, boolean pos) {
+        file = f;
+        address = a;
+        length = n;
+        format = fmt;
+        positional = pos;
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public PostingsListIterator iterator() {
+        return new StreamPostingsIterator(this);
+    }
+}
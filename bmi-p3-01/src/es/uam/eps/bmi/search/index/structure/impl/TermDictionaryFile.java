@@ -0,0 +1,247 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary term dictionary: terms sorted by their UTF-8 bytes and front-coded
+ * in blocks of BLOCK_SIZE, each term followed by its entry. Only a
+ * block index (offset and first term of each block) is loaded in memory;
+ * the file itself is memory-mapped. A lookup is a binary search over the
+ * block index plus the sequential decoding of one block.
+ *
+ * Layout: magic, version byte, int number of terms, int number of blocks;
+ * the blocks, where every term is the vbyte length of the prefix it shares
+ * with the previous term in the block (0 for the first one), the vbyte length
+ * and bytes of the rest, the vbyte address and, since version 2, the vbyte
+ * document frequency and total frequency; the block index, with the
+ * vbyte offset, length and bytes of the first term of each block; and the
+ * long offset of the block index.
+ *
+ * @author pablo
+ */
+public class TermDictionaryFile {
+    public static final int MAGIC = 0x424D4944; // "BMID"
+    public static final int VERSION = 2;
+    public static final int BLOCK_SIZE = 16;
+
+    MappedPostingsFile file;
+    int version;
+    int size;
+    long blockOffsets[];
+    byte firstTerms[][];
+
+    public TermDictionaryFile(String path) throws IOException {
+        this(new MappedPostingsFile(path));
+    }
+
+    public TermDictionaryFile(MappedPostingsFile f) throws IOException {
+        file = f;
+        MappedPostingsFile.Input in = file.open(0);
+        if (in.readInt() != MAGIC) throw new IOException("Not a binary term dictionary");
+        version = in.readByte();
+        if (version < 1 || version > VERSION) throw new IOException("Unsupported term dictionary version " + version);
+        size = in.readInt();
+        int nBlocks = in.readInt();
+        in = file.open(file.open(file.length() - 8).readLong());
+        blockOffsets = new long[nBlocks];
+        firstTerms = new byte[nBlocks][];
+        for (int b = 0; b < nBlocks; b++) {
+            blockOffsets[b] = PostingsCodec.readVLong(in);
+            firstTerms[b] = new byte[PostingsCodec.readVInt(in)];
+            in.readFully(firstTerms[b]);
+        }
+    }
+
+    public static boolean isBinary(File f) throws IOException {
+        if (f.length() < 4) return false;
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void write(String path, Map<String,TermInfo> terms) throws IOException {
+        List<Map.Entry<byte[],TermInfo>> sorted = new ArrayList<Map.Entry<byte[],TermInfo>>(terms.size());
+        for (Map.Entry<String,TermInfo> e : terms.entrySet())
+            sorted.add(new AbstractMap.SimpleEntry<byte[],TermInfo>(e.getKey().getBytes(StandardCharsets.UTF_8), e.getValue()));
+        Collections.sort(sorted, new Comparator<Map.Entry<byte[],TermInfo>>() {
+            public int compare(Map.Entry<byte[],TermInfo> a, Map.Entry<byte[],TermInfo> b) {
+                return TermDictionaryFile.compare(a.getKey(), a.getKey().length, b.getKey());
+            }
+        });
+
+        int nBlocks = (sorted.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(sorted.size());
+        out.writeInt(nBlocks);
+        // Entries go through a buffer to count offsets, since DataOutputStream.size() is an int
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        DataOutputStream entryOut = new DataOutputStream(entry);
+        long offset = 13;
+        long blockOffsets[] = new long[nBlocks];
+        byte prev[] = new byte[0];
+        for (int i = 0; i < sorted.size(); i++) {
+            byte term[] = sorted.get(i).getKey();
+            int prefix = 0;
+            if (i % BLOCK_SIZE == 0) blockOffsets[i / BLOCK_SIZE] = offset;
+            else while (prefix < prev.length && prefix < term.length && prev[prefix] == term[prefix]) prefix++;
+            entry.reset();
+            PostingsCodec.writeVInt(entryOut, prefix);
+            PostingsCodec.writeVInt(entryOut, term.length - prefix);
+            entryOut.write(term, prefix, term.length - prefix);
+            TermInfo info = sorted.get(i).getValue();
+            PostingsCodec.writeVLong(entryOut, info.address);
+            PostingsCodec.writeVInt(entryOut, info.docFreq);
+            PostingsCodec.writeVLong(entryOut, info.totalFreq);
+            entry.writeTo(out);
+            offset += entry.size();
+            prev = term;
+        }
+        long indexOffset = offset;
+        for (int b = 0; b < nBlocks; b++) {
+            byte first[] = sorted.get(b * BLOCK_SIZE).getKey();
+            PostingsCodec.writeVLong(out, blockOffsets[b]);
+            PostingsCodec.writeVInt(out, first.length);
+            out.write(first);
+        }
+        out.writeLong(indexOffset);
+        out.close();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Entry of the term, or null if absent
+    public TermInfo get(String term) throws IOException {
+        byte key[] = term.getBytes(StandardCharsets.UTF_8);
+        // Last block whose first term is <= key
+        int low = 0, high = firstTerms.length - 1, block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(firstTerms[mid], firstTerms[mid].length, key) <= 0) {
+                block = mid;
+                low = mid + 1;
+            }
+            else high = mid - 1;
+        }
+        if (block < 0) return null;
+
+        BlockReader reader = new BlockReader(block);
+        while (reader.next()) {
+            int c = compare(reader.term, reader.length, key);
+            if (c == 0) return reader.info();
+            if (c > 0) break;
+        }
+        return null;
+    }
+
+    // All terms in order, decoded block by block while iterating
+    public Collection<String> terms() {
+        return new AbstractCollection<String>() {
+            public int size() {
+                return size;
+            }
+
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    int block = -1;
+                    BlockReader reader;
+                    boolean ready;
+
+                    public boolean hasNext() {
+                        if (ready) return true;
+                        try {
+                            while (reader == null || !reader.next()) {
+                                if (++block >= firstTerms.length) return false;
+                                reader = new BlockReader(block);
+                            }
+                        } catch (IOException ex) {
+                            ex.printStackTrace();
+                            return false;
+                        }
+                        return ready = true;
+                    }
+
+                    public String next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        ready = false;
+                        return new String(reader.term, 0, reader.length, StandardCharsets.UTF_8);
+                    }
+                };
+            }
+        };
+    }
+
+    // Compares a[0..length) with b as unsigned bytes
+    static int compare(byte a[], int length, byte b[]) {
+        int n = Math.min(length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return length - b.length;
+    }
+
+    // Sequential decoder of the terms of one block
+    class BlockReader {
+        MappedPostingsFile.Input in;
+        int remaining;
+        byte term[] = new byte[32];
+        int length;
+        long address;
+        int docFreq = -1;
+        long totalFreq = -1;
+
+        BlockReader(int block) {
+            in = file.open(blockOffsets[block]);
+            remaining = Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            int prefix = PostingsCodec.readVInt(in);
+            int suffix = PostingsCodec.readVInt(in);
+            if (prefix + suffix > term.length) {
+                byte grown[] = new byte[2 * (prefix + suffix)];
+                System.arraycopy(term, 0, grown, 0, prefix);
+                term = grown;
+            }
+            in.readFully(term, prefix, suffix);
+            length = prefix + suffix;
+            address = PostingsCodec.readVLong(in);
+            if (version >= 2) {
+                docFreq = PostingsCodec.readVInt(in);
+                totalFreq = PostingsCodec.readVLong(in);
+            }
+            return true;
+        }
+
+        TermInfo info() {
+            return new TermInfo(address, docFreq, totalFreq);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Term to dictionary entry map based on a minimal perfect hash function
+ * (hash and displace): terms are hashed into buckets, and for every bucket a
+ * displacement is searched so that its terms land on free slots of a table
+ * with exactly one slot per term. Only the displacements, a 16 bit
+ * fingerprint and the entry per slot are stored, read straight from the
+ * memory-mapped file, so opening it takes constant time and heap. Unknown
+ * terms are rejected by the fingerprint, except for 1 in 65536 of them,
+ * which map to some other term.
+ *
+ * Layout: magic, version byte, int number of terms, int number of buckets,
+ * int seed, then int displacement per bucket (slot - 1 when negative, for
+ * single-term buckets), short fingerprint per slot, long address per slot and,
+ * since version 2, int document frequency and long total frequency per slot.
+ *
+ * @author pablo
+ */
+public class TermHashFile {
+    public static final int MAGIC = 0x424D4948; // "BMIH"
+    public static final int VERSION = 2;
+    static final int HEADER_SIZE = 17;
+    static final int MAX_DISPLACEMENT = 1 << 20;
+
+    MappedPostingsFile file;
+    int size;
+    int nBuckets;
+    int seed;
+    long fingerprints;
+    long addresses;
+    long docFreqs;
+    long totalFreqs;
+
+    public TermHashFile(String path) throws IOException {
+        file = new MappedPostingsFile(path);
+        if (file.length() < HEADER_SIZE || file.getInt(0) != MAGIC) throw new IOException("Not a term hash file: " + path);
+        MappedPostingsFile.Input in = file.open(4);
+        int version = in.readByte();
+        if (version < 1 || version > VERSION) throw new IOException("Unsupported term hash version " + version);
+        size = in.readInt();
+        nBuckets = in.readInt();
+        seed = in.readInt();
+        fingerprints = HEADER_SIZE + 4L * nBuckets;
+        addresses = fingerprints + 2L * size;
+        docFreqs = version < 2? -1 : addresses + 8L * size;
+        totalFreqs = docFreqs + 4L * size;
+    }
+
+    // Entry of the term, or null if absent
+    public TermInfo get(String term) {
+        if (size == 0) return null;
+        long h = hash(term.getBytes(StandardCharsets.UTF_8), seed);
+        int d = file.getInt(HEADER_SIZE + 4L * bucket(h, nBuckets));
+        int slot = d < 0? -d - 1 : slot(h, d, size);
+        if (file.getShort(fingerprints + 2L * slot) != fingerprint(h)) return null;
+        long address = file.getLong(addresses + 8L * slot);
+        if (docFreqs < 0) return new TermInfo(address);
+        return new TermInfo(address, file.getInt(docFreqs + 4L * slot), file.getLong(totalFreqs + 8L * slot));
+    }
+
+    public static void write(String path, Map<String,TermInfo> terms) throws IOException {
+        int n = terms.size();
+        long hashes[] = new long[n];
+        TermInfo entries[] = new TermInfo[n];
+        int nBuckets = Math.max(1, n / 2);
+        int displacements[] = new int[nBuckets];
+        int slots[] = new int[n];
+        int seed = 0;
+        boolean found = false;
+        while (!found) {
+            seed++;
+            int i = 0;
+            for (Map.Entry<String,TermInfo> e : terms.entrySet()) {
+                hashes[i] = hash(e.getKey().getBytes(StandardCharsets.UTF_8), seed);
+                entries[i++] = e.getValue();
+            }
+            found = place(hashes, nBuckets, displacements, slots);
+        }
+
+        short slotFingerprints[] = new short[n];
+        TermInfo slotEntries[] = new TermInfo[n];
+        for (int i = 0; i < n; i++) {
+            slotFingerprints[slots[i]] = fingerprint(hashes[i]);
+            slotEntries[slots[i]] = entries[i];
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(n);
+        out.writeInt(nBuckets);
+        out.writeInt(seed);
+        for (int d : displacements) out.writeInt(d);
+        for (short f : slotFingerprints) out.writeShort(f);
+        for (TermInfo e : slotEntries) out.writeLong(e.address);
+        for (TermInfo e : slotEntries) out.writeInt(e.docFreq);
+        for (TermInfo e : slotEntries) out.writeLong(e.totalFreq);
+        out.close();
+    }
+
+    // Finds the displacement of every bucket, largest buckets first; false if some bucket fails
+    static boolean place(long hashes[], int nBuckets, int displacements[], int slots[]) {
+        int n = hashes.length;
+        List<List<Integer>> buckets = new ArrayList<List<Integer>>(nBuckets);
+        for (int b = 0; b < nBuckets; b++) buckets.add(new ArrayList<Integer>(2));
+        for (int i = 0; i < n; i++) buckets.get(bucket(hashes[i], nBuckets)).add(i);
+        Integer order[] = new Integer[nBuckets];
+        for (int b = 0; b < nBuckets; b++) order[b] = b;
+        final List<List<Integer>> bs = buckets;
+        Arrays.sort(order, (a, b) -> bs.get(b).size() - bs.get(a).size());
+
+        boolean taken[] = new boolean[n];
+        int candidate[] = new int[n];
+        int free = 0;
+        for (int b : order) {
+            List<Integer> keys = buckets.get(b);
+            if (keys.isEmpty()) break;
+            if (keys.size() == 1) {
+                // Singletons take any free slot directly
+                while (taken[free]) free++;
+                taken[free] = true;
+                slots[keys.get(0)] = free;
+                displacements[b] = -free - 1;
+                continue;
+            }
+            int d = 0;
+            search:
+            while (true) {
+                if (++d > MAX_DISPLACEMENT) return false;
+                for (int k = 0; k < keys.size(); k++) {
+                    int s = slot(hashes[keys.get(k)], d, n);
+                    if (taken[s]) continue search;
+                    for (int j = 0; j < k; j++)
+                        if (candidate[j] == s) continue search;
+                    candidate[k] = s;
+                }
+                break;
+            }
+            displacements[b] = d;
+            for (int k = 0; k < keys.size(); k++) {
+                taken[candidate[k]] = true;
+                slots[keys.get(k)] = candidate[k];
+            }
+        }
+        return true;
+    }
+
+    static long hash(byte b[], int seed) {
+        long h = 0xCBF29CE484222325L ^ seed;
+        for (byte x : b) h = (h ^ (x & 0xFF)) * 0x100000001B3L;
+        return mix(h);
+    }
+
+    static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    static int bucket(long h, int nBuckets) {
+        return (int) Long.remainderUnsigned(h, nBuckets);
+    }
+
+    static int slot(long h, int d, int n) {
+        long h2 = mix(h);
+        return (int) Long.remainderUnsigned(h2 + d * (mix(h2) | 1), n);
+    }
+
+    static short fingerprint(long h) {
+        return (short) (h >>> 48);
+    }
+}
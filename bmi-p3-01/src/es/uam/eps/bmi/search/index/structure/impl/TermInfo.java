@@ -0,0 +1,28 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+/**
+ * Dictionary entry of a disk index term: postings address plus the term
+ * statistics, so that they are known without reading the postings. Entries of
+ * older dictionaries have no statistics (-1).
+ *
+ * @author pablo
+ */
+public class TermInfo {
+    public final long address;
+    public final int docFreq;
+    public final long totalFreq;
+
+    public TermInfo(long address, int docFreq, long totalFreq) {
+        this.address = address;
+        this.docFreq = docFreq;
+        this.totalFreq = totalFreq;
+    }
+
+    public TermInfo(long address) {
+        this(address, -1, -1);
+    }
+
+    public boolean hasStats() {
+        return docFreq >= 0;
+    }
+}
@@ -0,0 +1,162 @@
+package es.uam.eps.bmi.search.index.structure.impl;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Build-time term table: maps terms to dense int IDs (0, 1, 2... in order of
+ * insertion). Term bytes are stored UTF-8 encoded one after another in a
+ * single arena, and looked up by open addressing (linear probing) on their
+ * precomputed hashes, so looking up or adding a term allocates nothing.
+ * Not thread safe.
+ *
+ * @author pablo
+ */
+public class TermTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    byte arena[] = new byte[1 << 12];
+    int arenaSize;
+    // Term i takes arena[starts[i]..starts[i+1])
+    int starts[] = new int[17];
+    int hashes[] = new int[16];
+    // termID + 1 per slot, 0 when empty; at most half full
+    int slots[] = new int[32];
+    int size;
+    transient byte scratch[];
+
+    public int size() {
+        return size;
+    }
+
+    // ID of the term, which is added if new
+    public int add(CharSequence s, int start, int end) {
+        int n = encode(s, start, end);
+        return add(scratch, 0, n, hash(scratch, 0, n));
+    }
+
+    public int add(String term) {
+        return add(term, 0, term.length());
+    }
+
+    // ID of the term, or -1 if absent
+    public int get(CharSequence s, int start, int end) {
+        int n = encode(s, start, end);
+        return slots[find(scratch, 0, n, hash(scratch, 0, n))] - 1;
+    }
+
+    public int get(String term) {
+        return get(term, 0, term.length());
+    }
+
+    // Adds term id of another table, copying its bytes without decoding them
+    public int add(TermTable other, int id) {
+        int start = other.starts[id];
+        return add(other.arena, start, other.starts[id + 1] - start, other.hashes[id]);
+    }
+
+    public String term(int id) {
+        return new String(arena, starts[id], starts[id + 1] - starts[id], StandardCharsets.UTF_8);
+    }
+
+    // All terms by ID, decoded when accessed
+    public List<String> terms() {
+        return new AbstractList<String>() {
+            public String get(int id) {
+                return term(id);
+            }
+
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    int add(byte b[], int off, int len, int h) {
+        int slot = find(b, off, len, h);
+        if (slots[slot] != 0) return slots[slot] - 1;
+
+        if (arenaSize + len > arena.length)
+            arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaSize + len));
+        System.arraycopy(b, off, arena, arenaSize, len);
+        arenaSize += len;
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, 2 * size);
+            starts = Arrays.copyOf(starts, 2 * size + 1);
+        }
+        hashes[size] = h;
+        starts[size + 1] = arenaSize;
+        slots[slot] = ++size;
+        if (2 * size > slots.length) rehash();
+        return size - 1;
+    }
+
+    // Slot holding the term, or the empty slot where it would go
+    int find(byte b[], int off, int len, int h) {
+        int mask = slots.length - 1;
+        int slot = h & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == h && equals(id, b, off, len)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    boolean equals(int id, byte b[], int off, int len) {
+        int start = starts[id];
+        if (starts[id + 1] - start != len) return false;
+        for (int i = 0; i < len; i++)
+            if (arena[start + i] != b[off + i]) return false;
+        return true;
+    }
+
+    void rehash() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+
+    static int hash(byte b[], int off, int len) {
+        int h = 0x811C9DC5;
+        for (int i = off; i < off + len; i++)
+            h = (h ^ b[i]) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    // UTF-8 encodes s[start..end) into scratch, returning the number of bytes
+    int encode(CharSequence s, int start, int end) {
+        if (scratch == null || scratch.length < 3 * (end - start))
+            scratch = new byte[Math.max(64, 3 * (end - start))];
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) scratch[n++] = (byte) c;
+            else if (c < 0x800) {
+                scratch[n++] = (byte) (0xC0 | (c >> 6));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                scratch[n++] = (byte) (0xF0 | (cp >> 18));
+                scratch[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                scratch[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (cp & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) scratch[n++] = '?';
+            else {
+                scratch[n++] = (byte) (0xE0 | (c >> 12));
+                scratch[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return n;
+    }
+}
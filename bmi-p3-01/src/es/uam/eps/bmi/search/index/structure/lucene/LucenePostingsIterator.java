@@ -35,4 +35,14 @@ public class LucenePostingsIterator implements PostingsListIterator {
             return null;
         }
     }
+
+    public Posting nextGEQ(int docID) {
+        try {
+            if (hasNext() && currentDoc < docID) currentDoc = postings.advance(docID);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+        return hasNext()? next() : null;
+    }
 }
@@ -1,9 +1,8 @@
 package es.uam.eps.bmi.search.index.structure.lucene;
 
-import es.uam.eps.bmi.search.index.structure.Posting;
 import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
 import java.io.IOException;
-import java.util.Iterator;
 import org.apache.lucene.index.PostingsEnum;
 
 /**
@@ -19,7 +18,7 @@ public class LucenePostingsList implements PostingsList {
         size = n;
     }
 
-    public Iterator<Posting> iterator() {
+    public PostingsListIterator iterator() {
         try {
             return new LucenePostingsIterator(postings);
         } catch (IOException ex) {
@@ -0,0 +1,35 @@
+package es.uam.eps.bmi.search.index.structure.positional;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only view of a range of an int array as a list of positions, so that
+ * decoded positions need not be boxed unless they are read.
+ *
+ * @author pablo
+ */
+public class IntPositionsList extends AbstractList<Integer> implements PositionsList, RandomAccess {
+    int positions[];
+    int from;
+    int size;
+
+    public IntPositionsList(int pos[], int start, int n) {
+        positions = pos;
+        from = start;
+        size = n;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Integer get(int i) {
+        return getInt(i);
+    }
+
+    public int getInt(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("" + i);
+        return positions[from + i];
+    }
+}
@@ -21,9 +21,11 @@ public class LucenePositionalPostingsIterator extends LucenePostingsIterator {
     }
 
     public Posting next() {
+        int docID = currentDoc;
         super.next();
         try {
-            positionPostings.nextDoc();
+            // advance rather than nextDoc, since nextGEQ may have skipped documents
+            positionPostings.advance(docID);
             List<Integer> positions = new ArrayList<Integer>(positionPostings.freq());
             for (int i = 0; i < positionPostings.freq(); i++)
                 positions.add(positionPostings.nextPosition());
@@ -1,9 +1,8 @@
 package es.uam.eps.bmi.search.index.structure.positional.lucene;
 
-import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
 import es.uam.eps.bmi.search.index.structure.lucene.LucenePostingsList;
 import java.io.IOException;
-import java.util.Iterator;
 import org.apache.lucene.index.PostingsEnum;
 
 /**
@@ -18,7 +17,7 @@ public class LucenePositionalPostingsList extends LucenePostingsList {
         positionPostings = p2;
     }
 
-    public Iterator<Posting> iterator() {
+    public PostingsListIterator iterator() {
         try {
             return new LucenePositionalPostingsIterator(postings, positionPostings);
         } catch (IOException ex) {
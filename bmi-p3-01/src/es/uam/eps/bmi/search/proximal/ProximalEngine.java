@@ -2,20 +2,28 @@ package es.uam.eps.bmi.search.proximal;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.List;
 
+import es.uam.eps.bmi.search.Deadline;
 import es.uam.eps.bmi.search.index.Index;
 import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import es.uam.eps.bmi.search.index.structure.positional.IntPositionsList;
 import es.uam.eps.bmi.search.index.structure.positional.PositionalPosting;
-import es.uam.eps.bmi.search.index.structure.positional.PositionsIterator;
-import es.uam.eps.bmi.search.index.structure.positional.lucene.LucenePositionalPostingsList;
+import es.uam.eps.bmi.search.index.structure.positional.PositionalPostingImpl;
 import es.uam.eps.bmi.search.ranking.SearchRanking;
 import es.uam.eps.bmi.search.ranking.impl.RankingImpl;
 import es.uam.eps.bmi.search.vsm.AbstractVSMEngine;
 
 /**
  * Engine de busqueda que realiza una busqueda proximal (por intervalos).
- * 
+ *
+ * Las listas de postings de los terminos se recorren una sola vez,
+ * intersecandolas a partir de la mas corta: solo se calculan los intervalos
+ * de los documentos que contienen todos los terminos, que son los unicos con
+ * score mayor que cero.
+ *
  * @author Alejandro Martin
  * @author Jorge Cifuentes
  *
@@ -28,6 +36,16 @@ public class ProximalEngine extends AbstractVSMEngine {
 
 	@Override
 	public SearchRanking search(String query, int cutoff) throws IOException {
+		return search(query, cutoff, null);
+	}
+
+	/**
+	 * Busqueda con un limite de tiempo o de postings leidos: al agotarse se
+	 * devuelve el ranking de los documentos recorridos hasta entonces, marcado
+	 * como aproximado.
+	 */
+	@Override
+	public SearchRanking search(String query, int cutoff, Deadline deadline) throws IOException {
 
 		String[] terms;
 		boolean flagLiteral = false;
@@ -41,124 +59,188 @@ public class ProximalEngine extends AbstractVSMEngine {
 		}
 
 		RankingImpl ranking = new RankingImpl(index, cutoff);
+		int n = terms.length;
+
+		// una lista por termino de la consulta, repetidos incluidos; si alguno
+		// no aparece en la coleccion ningun documento los contiene todos
+		PostingsList[] listas = new PostingsList[n];
+		int corta = 0;
+		for (int k = 0; k < n; k++) {
+			listas[k] = this.index.getPostings(terms[k]);
+			if (listas[k] == null || listas[k].size() == 0) {
+				return ranking;
+			}
+			if (listas[k].size() < listas[corta].size()) {
+				corta = k;
+			}
+		}
+		if (n == 0) {
+			return ranking;
+		}
+
+		PostingsListIterator[] its = new PostingsListIterator[n];
+		for (int k = 0; k < n; k++) {
+			its[k] = listas[k].iterator();
+		}
 
-		for (int doc = 0; doc < index.numDocs(); doc++) {
+		// posting de cada termino en el documento candidato
+		Posting[] actual = new Posting[n];
 
-			// busqueda proximal
-			ArrayList<Integer> a = new ArrayList<>();
-			ArrayList<Integer> b = new ArrayList<>();
+		// posiciones de cada termino en el documento
+		int[][] posiciones = new int[n][];
+		int[] nPos = new int[n];
 
-			// busqueda literal
-			ArrayList<Integer> a_lit = new ArrayList<>();
-			ArrayList<Integer> b_lit = new ArrayList<>();
+		// busqueda proximal
+		ArrayList<Integer> a = new ArrayList<>();
+		ArrayList<Integer> b = new ArrayList<>();
 
-			a.add(-1); // -infinito
-			b.add(-1);
+		// busqueda literal
+		ArrayList<Integer> a_lit = new ArrayList<>();
+		ArrayList<Integer> b_lit = new ArrayList<>();
 
-			a_lit.add(-1);
-			b_lit.add(-1);
+		// los candidatos salen de la lista mas corta, y el resto de listas
+		// salta hasta ellos
+		int doc = -1;
+		candidatos:
+		while (true) {
 
-			int i = 1;
+			// los documentos se recorren enteros, se comprueba el limite entre uno y otro
+			if (deadline != null && (deadline.consume(n) || deadline.expired())) {
+				ranking.setApproximate(true);
+				break;
+			}
 
-			// bucle principal
-			while (true) {
-				ArrayList<LucenePositionalPostingsList> pl = new ArrayList<>();
-				ArrayList<LucenePositionalPostingsList> pl2 = new ArrayList<>();
+			actual[corta] = its[corta].nextGEQ(doc + 1);
+			if (actual[corta] == null) {
+				break;
+			}
+			doc = actual[corta].getDocID();
 
-				for (String t : terms) {
-					pl.add((LucenePositionalPostingsList) this.index.getPostings(t));
-					pl2.add((LucenePositionalPostingsList) this.index.getPostings(t));
+			for (int k = 0; k < n; k++) {
+				if (actual[k] == null || actual[k].getDocID() < doc) {
+					actual[k] = its[k].nextGEQ(doc);
+				}
+				if (actual[k] == null) {
+					break candidatos;
+				}
+				if (actual[k].getDocID() > doc) {
+					// ningun documento hasta este los contiene todos
+					doc = actual[k].getDocID() - 1;
+					continue candidatos;
 				}
+			}
 
-				// calculamos el valor de b
-				int max_b = -1;
-				Iterator<LucenePositionalPostingsList> it = pl.iterator();
-				while (it.hasNext()) {
-					int maxAux = -1;
+			for (int k = 0; k < n; k++) {
+				posiciones[k] = leerPosiciones(actual[k], posiciones[k]);
+				nPos[k] = (int) actual[k].getFreq();
+			}
 
-					Iterator<Posting> itpos = it.next().iterator();
-					while (itpos.hasNext()) {
-						Posting q = itpos.next();
-						PositionsIterator pi = (PositionsIterator) ((PositionalPosting) q).iterator();
+			double score = intervalos(posiciones, nPos, flagLiteral, a, b, a_lit, b_lit);
 
-						if (q.getDocID() == doc)
-							maxAux = pi.nextAfter(a.get(i - 1));
-					}
+			if (score > 0)
+				ranking.add(doc, score);
 
-					if (maxAux > max_b) {
-						max_b = maxAux;
-					}
+		}
 
-				}
+		return ranking;
+	}
 
-				if (max_b >= Integer.MAX_VALUE) {
-					b.add(-1); // "infinito"
-					break;
-				} else if (max_b == -1) { // no encontrado
-					break;
-				} else {
-					b.add(max_b);
-				}
+	/**
+	 * Calcula los intervalos minimos de un documento que contiene todos los
+	 * terminos y su score. Cada termino se recorre con dos punteros, para la
+	 * siguiente posicion despues de a y la ultima antes de b, que solo avanzan
+	 * porque a y b crecen de un intervalo al siguiente.
+	 *
+	 * @param posiciones
+	 *            Posiciones ordenadas de cada termino en el documento.
+	 * @param nPos
+	 *            Numero de posiciones de cada termino.
+	 * @param flagLiteral
+	 *            Si solo cuentan los intervalos que cumplen literalidad.
+	 * @return Score calculada.
+	 */
+	private double intervalos(int[][] posiciones, int[] nPos, boolean flagLiteral, ArrayList<Integer> a,
+			ArrayList<Integer> b, ArrayList<Integer> a_lit, ArrayList<Integer> b_lit) {
 
-				// calculamos el valor de a
-				int min_a = max_b;
-				Iterator<LucenePositionalPostingsList> it2 = pl2.iterator();
-				while (it2.hasNext()) {
-					int minAux = -1;
+		int n = posiciones.length;
+		int[] arriba = new int[n];
+		int[] abajo = new int[n];
 
-					Iterator<Posting> itpos2 = it2.next().iterator();
-					while (itpos2.hasNext()) {
-						Posting q = itpos2.next();
-						PositionsIterator pi = (PositionsIterator) ((PositionalPosting) q).iterator();
+		a.clear();
+		b.clear();
+		a_lit.clear();
+		b_lit.clear();
 
-						if (q.getDocID() == doc)
-							minAux = pi.nextBefore(b.get(i));
-					}
+		a.add(-1); // -infinito
+		b.add(-1);
 
-					if (minAux < min_a) {
-						min_a = minAux;
-					}
+		a_lit.add(-1);
+		b_lit.add(-1);
 
-				}
+		int i = 1;
+
+		// bucle principal
+		while (true) {
 
-				if (min_a == -1) {
-					break; // no hay ningun intervalo posible
+			// calculamos el valor de b: la primera posicion de cada termino
+			// despues de a, la mayor de ellas
+			int max_b = -1;
+			for (int k = 0; k < n; k++) {
+				while (arriba[k] < nPos[k] && posiciones[k][arriba[k]] <= a.get(i - 1)) {
+					arriba[k]++;
 				}
+				int maxAux = arriba[k] < nPos[k] ? posiciones[k][arriba[k]] : Integer.MAX_VALUE;
 
-				a.add(min_a);
+				if (maxAux > max_b) {
+					max_b = maxAux;
+				}
+			}
 
-				// Si hay busqueda literal, solo si cumplen literalidad se
-				// agregan
-				if (flagLiteral == true) {
-					if (comprobarLiteral(min_a, doc, terms) == true) {
-						a_lit.add(min_a);
-						b_lit.add(max_b);
-					}
+			if (max_b >= Integer.MAX_VALUE) {
+				b.add(-1); // "infinito"
+				break;
+			}
+			b.add(max_b);
+
+			// calculamos el valor de a: la ultima posicion de cada termino no
+			// posterior a b (la primera si no hay), la menor de ellas
+			int min_a = max_b;
+			for (int k = 0; k < n; k++) {
+				while (abajo[k] < nPos[k] - 1 && posiciones[k][abajo[k] + 1] <= max_b) {
+					abajo[k]++;
 				}
+				int minAux = posiciones[k][abajo[k]];
 
-				i++;
+				if (minAux < min_a) {
+					min_a = minAux;
+				}
 			}
 
-			// calculamos la score
-			double score = 0;
+			a.add(min_a);
 
+			// Si hay busqueda literal, solo si cumplen literalidad se
+			// agregan
 			if (flagLiteral == true) {
-				score = calculaScore(a_lit, b_lit, terms.length);
-			} else {
-				score = calculaScore(a, b, terms.length);
+				if (comprobarLiteral(min_a, posiciones, nPos) == true) {
+					a_lit.add(min_a);
+					b_lit.add(max_b);
+				}
 			}
 
-			if (score > 0)
-				ranking.add(doc, score);
-
+			i++;
 		}
 
-		return ranking;
+		// calculamos la score
+		if (flagLiteral == true) {
+			return calculaScore(a_lit, b_lit, n);
+		} else {
+			return calculaScore(a, b, n);
+		}
 	}
 
 	/**
 	 * Calcula el score de un documento partido en intervalos proximales.
-	 * 
+	 *
 	 * @param a
 	 *            Lista de inicios de intervalo.
 	 * @param b
@@ -178,59 +260,74 @@ public class ProximalEngine extends AbstractVSMEngine {
 	}
 
 	/**
-	 * Comprueba si un intervalo cumple literalidad.
-	 * 
+	 * Comprueba si un intervalo cumple literalidad: el termino k-esimo de la
+	 * consulta tiene que estar en la posicion min_a + k.
+	 *
 	 * @param min_a
 	 *            Primer valor del intervalo.
-	 * @param doc
-	 *            docID.
-	 * @param terms
-	 *            Terminos del documento.
+	 * @param posiciones
+	 *            Posiciones de cada termino en el documento.
+	 * @param nPos
+	 *            Numero de posiciones de cada termino.
 	 * @return True si lo cumple, false sino
-	 * @throws IOException
 	 */
-	private boolean comprobarLiteral(int min_a, int doc, String[] terms) throws IOException {
-
-		ArrayList<LucenePositionalPostingsList> pl = new ArrayList<>();
+	private boolean comprobarLiteral(int min_a, int[][] posiciones, int[] nPos) {
 
-		for (String t : terms) {
-			pl.add((LucenePositionalPostingsList) this.index.getPostings(t));
-		}
+		int pos = min_a;
+		for (int k = 0; k < posiciones.length; k++) {
 
-		Iterator<LucenePositionalPostingsList> it = pl.iterator();
+			boolean contains = false;
 
-		int pos = min_a;
-		while (it.hasNext()) {
+			for (int j = 0; j < nPos[k]; j++) {
+				if (posiciones[k][j] == pos) {
+					contains = true;
+					break;
+				}
+			}
 
-			Iterator<Posting> itpos = it.next().iterator();
-			while (itpos.hasNext()) {
+			if (contains == false) {
+				return false;
+			}
 
-				Posting q = itpos.next();
-				PositionsIterator pi = (PositionsIterator) ((PositionalPosting) q).iterator();
+			pos++;
+		}
 
-				if (q.getDocID() == doc) {
+		return true;
 
-					boolean contains = false;
+	}
 
-					while (pi.hasNext()) {
-						if (pi.next() == pos) {
-							contains = true;
-							break;
-						}
-					}
+	/**
+	 * Copia las posiciones de un posting posicional en un array, que se
+	 * reutiliza si tiene sitio.
+	 *
+	 * @param p
+	 *            Posting posicional.
+	 * @param buffer
+	 *            Array anterior del termino, o null.
+	 * @return Array con las posiciones al principio.
+	 */
+	private int[] leerPosiciones(Posting p, int[] buffer) {
 
-					if (contains == false) {
-						return false;
-					}
+		int freq = (int) p.getFreq();
+		if (buffer == null || buffer.length < freq) {
+			buffer = new int[Math.max(freq, 16)];
+		}
 
-					break;
+		// las posiciones de los indices propios estan en un array, sin Integer
+		if (p instanceof PositionalPostingImpl) {
+			List<Integer> l = ((PositionalPostingImpl) p).getPositions();
+			if (l instanceof IntPositionsList) {
+				for (int j = 0; j < freq; j++) {
+					buffer[j] = ((IntPositionsList) l).getInt(j);
 				}
+				return buffer;
 			}
-
-			pos++;
 		}
 
-		return true;
-
+		int j = 0;
+		for (int pos : (PositionalPosting) p) {
+			buffer[j++] = pos;
+		}
+		return buffer;
 	}
-}
\ No newline at end of file
+}
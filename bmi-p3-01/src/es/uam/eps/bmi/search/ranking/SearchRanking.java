@@ -6,4 +6,9 @@ package es.uam.eps.bmi.search.ranking;
  */
 public interface SearchRanking extends Iterable<SearchRankingDoc> {
     public int size();
+
+    // Whether the query was stopped before it was over, by a deadline or failures
+    public default boolean isApproximate() {
+        return false;
+    }
 }
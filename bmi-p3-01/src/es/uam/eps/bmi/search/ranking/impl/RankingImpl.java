@@ -4,43 +4,155 @@ import es.uam.eps.bmi.search.index.DocumentMap;
 import es.uam.eps.bmi.search.ranking.SearchRankingIterator;
 import es.uam.eps.bmi.search.ranking.SearchRanking;
 import es.uam.eps.bmi.search.ranking.SearchRankingDoc;
-import java.util.Comparator;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 /**
+ * Top results as a min-heap of docIDs and scores, which grows up to the
+ * cutoff, so adding a document allocates nothing; the ranking documents are
+ * only created as they are iterated. The heap is sorted in place when the
+ * ranking is iterated, and made a heap again if more documents are added;
+ * iterators read the arrays directly, so those are copied first if an
+ * iterator may still be open, which leaves each iterator with the ranking as
+ * it was when it was created.
+ * Rankings searched in parallel, over shards or segments, are put together
+ * with merge.
  *
  * @author pablo
  */
 public class RankingImpl implements SearchRanking {
     DocumentMap docMap;
-    PriorityQueue<SearchRankingDoc> rankingHeap;
+    int docIDs[];
+    double scores[];
+    int size;
+    // By decreasing score rather than a heap
+    boolean sorted;
+    // The arrays are being read by an iterator
+    boolean shared;
     int cutoff;
     int nResults;
+    boolean approximate;
     
     public RankingImpl (DocumentMap m, int n) {
         docMap = m;
         cutoff = n;
         nResults = 0;
-        rankingHeap = new PriorityQueue<SearchRankingDoc>(Comparator.reverseOrder());
+        docIDs = new int[Math.min(cutoff, 16)];
+        scores = new double[docIDs.length];
     }
     
     public void add(int docID, double score) {
-        if (rankingHeap.size() < cutoff || score > rankingHeap.peek().getScore()) {
-            if (rankingHeap.size() == cutoff) rankingHeap.poll();
-            rankingHeap.add(new RankingDocImpl(docMap, docID, score));
-        }
+        if (docMap.isDeleted(docID)) return;
         nResults++;
+        if (shared) {
+            docIDs = docIDs.clone();
+            scores = scores.clone();
+            shared = false;
+        }
+        if (sorted) heapify();
+        if (size == cutoff && (cutoff == 0 || score <= scores[0])) return;
+        if (size < cutoff) {
+            if (size == docIDs.length) {
+                docIDs = Arrays.copyOf(docIDs, (int) Math.min(cutoff, 2L * size));
+                scores = Arrays.copyOf(scores, docIDs.length);
+            }
+            siftUp(size++, docID, score);
+        }
+        // Replaces the lowest
+        else siftDown(0, docID, score, size);
+    }
+
+    // Score a document must exceed to enter the ranking
+    public double threshold() {
+        if (size < cutoff) return Double.NEGATIVE_INFINITY;
+        if (size == 0) return Double.POSITIVE_INFINITY;
+        return sorted? scores[size - 1] : scores[0];
+    }
+
+    // Adds the top results of a ranking whose docIDs start at base in this one's document map
+    public void merge(SearchRanking ranking, int base) {
+        int n = nResults;
+        if (ranking instanceof RankingImpl) {
+            RankingImpl r = (RankingImpl) ranking;
+            for (int i = 0; i < r.size; i++)
+                add(base + r.docIDs[i], r.scores[i]);
+            nResults = n + r.nResults;
+        }
+        else for (SearchRankingDoc doc : ranking)
+            add(base + doc.getDocID(), doc.getScore());
+        approximate |= ranking.isApproximate();
     }
     
     public SearchRankingIterator iterator() {
-        return new RankingIteratorImpl(rankingHeap);
+        if (!sorted) sort();
+        shared = true;
+        return new RankingIteratorImpl(docMap, docIDs, scores, size);
     }
 
     public int size() {
-        return rankingHeap.size();
+        return size;
     }
 
     public int nResults() {
         return nResults;
     }
+
+    public void setApproximate(boolean a) {
+        approximate = a;
+    }
+
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    void siftUp(int k, int docID, double score) {
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (score >= scores[parent]) break;
+            docIDs[k] = docIDs[parent];
+            scores[k] = scores[parent];
+            k = parent;
+        }
+        docIDs[k] = docID;
+        scores[k] = score;
+    }
+
+    // Over the first n entries
+    void siftDown(int k, int docID, double score, int n) {
+        int half = n >>> 1;
+        while (k < half) {
+            int child = 2 * k + 1;
+            if (child + 1 < n && scores[child] > scores[child + 1]) child++;
+            if (score <= scores[child]) break;
+            docIDs[k] = docIDs[child];
+            scores[k] = scores[child];
+            k = child;
+        }
+        docIDs[k] = docID;
+        scores[k] = score;
+    }
+
+    // Takes the lowest out to the end, one at a time, which leaves them by decreasing score
+    void sort() {
+        for (int n = size - 1; n > 0; n--) {
+            int docID = docIDs[0];
+            double score = scores[0];
+            siftDown(0, docIDs[n], scores[n], n);
+            docIDs[n] = docID;
+            scores[n] = score;
+        }
+        sorted = true;
+    }
+
+    // Increasing order is a heap
+    void heapify() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            int docID = docIDs[i];
+            docIDs[i] = docIDs[j];
+            docIDs[j] = docID;
+            double score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+        }
+        sorted = false;
+    }
 }
@@ -1,30 +1,36 @@
 package es.uam.eps.bmi.search.ranking.impl;
 
+import es.uam.eps.bmi.search.index.DocumentMap;
 import es.uam.eps.bmi.search.ranking.SearchRankingDoc;
 import es.uam.eps.bmi.search.ranking.SearchRankingIterator;
-import java.util.PriorityQueue;
 
 /**
  *
  * @author pablo
  */
 public class RankingIteratorImpl implements SearchRankingIterator {
-    SearchRankingDoc ranking[];
+    DocumentMap docMap;
+    int docIDs[];
+    double scores[];
+    int size;
     int pos;
 
-    public RankingIteratorImpl (PriorityQueue<SearchRankingDoc> r) {
-        PriorityQueue<SearchRankingDoc> results = new PriorityQueue<SearchRankingDoc>(r);
-        ranking = new SearchRankingDoc[results.size()];
-        pos = ranking.length;
-        while (!results.isEmpty())
-            ranking[--pos] = results.poll();
+    // The first n docIDs and scores, by decreasing score
+    public RankingIteratorImpl (DocumentMap m, int d[], double s[], int n) {
+        docMap = m;
+        docIDs = d;
+        scores = s;
+        size = n;
+        pos = 0;
     }
     
     public boolean hasNext() {
-        return pos < ranking.length;
+        return pos < size;
     }
 
     public SearchRankingDoc next() {
-         return ranking[pos++];
+        SearchRankingDoc doc = new RankingDocImpl(docMap, docIDs[pos], scores[pos]);
+        pos++;
+        return doc;
     }
 }
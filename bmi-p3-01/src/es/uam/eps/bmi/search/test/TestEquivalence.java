@@ -0,0 +1,392 @@
+package es.uam.eps.bmi.search.test;
+
+import es.uam.eps.bmi.search.SearchEngine;
+import es.uam.eps.bmi.search.ShardedSearchEngine;
+import es.uam.eps.bmi.search.distributed.SearchBroker;
+import es.uam.eps.bmi.search.distributed.ShardProtocol;
+import es.uam.eps.bmi.search.distributed.ShardServer;
+import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.impl.DiskIndex;
+import es.uam.eps.bmi.search.index.impl.DiskIndexBuilder;
+import es.uam.eps.bmi.search.index.impl.ImpactIndex;
+import es.uam.eps.bmi.search.index.impl.ImpactIndexBuilder;
+import es.uam.eps.bmi.search.index.impl.PositionalIndexBuilderImpl;
+import es.uam.eps.bmi.search.index.impl.PositionalIndexImpl;
+import es.uam.eps.bmi.search.index.impl.SegmentedIndex;
+import es.uam.eps.bmi.search.index.impl.SegmentedIndexBuilder;
+import es.uam.eps.bmi.search.index.impl.SerializedRAMIndex;
+import es.uam.eps.bmi.search.index.impl.SerializedRAMIndexBuilder;
+import es.uam.eps.bmi.search.index.impl.ShardedIndex;
+import es.uam.eps.bmi.search.index.impl.ShardedIndexBuilder;
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import es.uam.eps.bmi.search.ranking.SearchRanking;
+import es.uam.eps.bmi.search.ranking.SearchRankingDoc;
+import es.uam.eps.bmi.search.vsm.DocBasedVSMEngine;
+import es.uam.eps.bmi.search.vsm.ImpactVSMEngine;
+import es.uam.eps.bmi.search.vsm.TermBasedVSMEngine;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Checks that the optimized search paths give the same results as the plain
+ * ones they stand for, on a synthetic collection written to the index folder:
+ * pruned searches (WAND, MaxScore, impacts) against exhaustive ones, segments
+ * with deletions merged against an index built from the live documents alone,
+ * sharded and brokered searches against a single index, and nextGEQ against
+ * plain iteration. Throws at the first difference.
+ *
+ * Run as: TestEquivalence [folder], by default index/equivalence.
+ *
+ * @author pablo
+ */
+public class TestEquivalence {
+    static final int NUM_DOCS = 500;
+    static final int VOCABULARY = 2000;
+    static final int NUM_QUERIES = 500;
+    static final int CUTOFFS[] = {1, 5, 10, 100};
+
+    public static void main (String a[]) throws IOException {
+        String folder = a.length > 0? a[0] : "index/equivalence";
+        String collection = folder + "/collection";
+        writeCollection(collection, 1);
+
+        System.out.println("=======================");
+        System.out.println("Building indices...");
+        new DiskIndexBuilder().build(collection, folder + "/disk");
+        new ImpactIndexBuilder().build(collection, folder + "/impact");
+        new SerializedRAMIndexBuilder().build(collection, folder + "/ram");
+        new PositionalIndexBuilderImpl().build(collection, folder + "/positional");
+        Index disk = new DiskIndex(folder + "/disk");
+        List<String> queries = queries(disk, 2);
+
+        System.out.println("=======================");
+        System.out.println("Checking pruned search...");
+        testPruning(disk, new ImpactIndex(folder + "/impact"), queries);
+
+        System.out.println("=======================");
+        System.out.println("Checking nextGEQ...");
+        testNextGEQ(disk);
+        testNextGEQ(new SerializedRAMIndex(folder + "/ram"));
+        testNextGEQ(new PositionalIndexImpl(folder + "/positional"));
+
+        System.out.println("=======================");
+        System.out.println("Checking segments...");
+        testSegments(collection, folder, queries);
+
+        System.out.println("=======================");
+        System.out.println("Checking shards...");
+        testShards(collection, folder, disk, queries);
+
+        System.out.println("=======================");
+        System.out.println("All checks passed");
+    }
+
+    static void testPruning(Index index, ImpactIndex impactIndex, List<String> queries) throws IOException {
+        DocBasedVSMEngine exhaustive = new DocBasedVSMEngine(index);
+        DocBasedVSMEngine wand = new DocBasedVSMEngine(index);
+        wand.setPruning(true);
+        TermBasedVSMEngine termAtATime = new TermBasedVSMEngine(index);
+        TermBasedVSMEngine maxScore = new TermBasedVSMEngine(index);
+        maxScore.setPruning(true);
+        ImpactVSMEngine impacts = new ImpactVSMEngine(impactIndex);
+        for (int i = 0; i < queries.size(); i++) {
+            String query = queries.get(i);
+            int cutoff = CUTOFFS[i % CUTOFFS.length];
+            SearchRanking expected = exhaustive.search(query, cutoff);
+            // Same terms added in the same order, so same scores to the last bit
+            check(dump(wand.search(query, cutoff)).equals(dump(expected)), "WAND", query, cutoff);
+            // Terms are added in another order
+            check(sameRanking(maxScore.search(query, cutoff), termAtATime.search(query, cutoff), 1e-12), "MaxScore", query, cutoff);
+            SearchRanking ranking = impacts.search(query, cutoff);
+            check(!ranking.isApproximate() && dump(ranking).equals(dump(expected)), "impacts", query, cutoff);
+        }
+        System.out.println("  WAND, MaxScore and impacts: " + queries.size() + " queries ok");
+    }
+
+    // Each list iterated with nextGEQ and next against the postings read in order
+    static void testNextGEQ(Index index) throws IOException {
+        Random random = new Random(3);
+        int nLists = 0;
+        for (String term : index.getAllTerms()) {
+            PostingsList postings = index.getPostings(term);
+            List<Integer> docIDs = new ArrayList<Integer>();
+            for (Posting p : postings) docIDs.add(p.getDocID());
+            nLists++;
+
+            PostingsListIterator it = postings.iterator();
+            check(docIDs.isEmpty()? it.nextGEQ(0) == null : it.nextGEQ(0).getDocID() == docIDs.get(0), "nextGEQ from the start", term);
+            check(postings.iterator().nextGEQ(Integer.MAX_VALUE) == null, "nextGEQ past the end", term);
+
+            for (int run = 0; run < 3; run++) {
+                it = postings.iterator();
+                int pos = 0;
+                int target = -1;
+                while (true) {
+                    // Short skips within a block and long ones across blocks, some of them to a docID of the list
+                    target += random.nextInt(random.nextBoolean()? 3 : 100);
+                    if (pos < docIDs.size() && random.nextInt(4) == 0) target = Math.max(target, docIDs.get(pos));
+                    while (pos < docIDs.size() && docIDs.get(pos) < target) pos++;
+                    Posting p = it.nextGEQ(target);
+                    if (pos == docIDs.size()) {
+                        check(p == null, "nextGEQ at the end", term);
+                        break;
+                    }
+                    check(p != null && p.getDocID() == docIDs.get(pos), "nextGEQ", term);
+                    pos++;
+                    if (random.nextBoolean() && pos < docIDs.size()) {
+                        check(it.hasNext() && it.next().getDocID() == docIDs.get(pos), "next after nextGEQ", term);
+                        target = docIDs.get(pos++);
+                    }
+                    check(it.hasNext() == pos < docIDs.size(), "hasNext", term);
+                }
+                // Once exhausted it stays so
+                check(it.nextGEQ(target + 1) == null && it.nextGEQ(0) == null && !it.hasNext(), "nextGEQ after the end", term);
+            }
+        }
+        System.out.println("  " + index.getClass().getSimpleName() + ": " + nLists + " lists ok");
+    }
+
+    // Segments with deleted and updated documents, before and after merging them all, against an index of the live documents
+    static void testSegments(String collection, String folder, List<String> queries) throws IOException {
+        String updated = "updated " + word(0) + " " + word(1) + " " + word(1);
+        Set<String> deleted = new HashSet<String>();
+        for (int docID = 40; docID < 90; docID++) deleted.add(docName(docID));
+        deleted.add(docName(300));
+
+        String liveCollection = folder + "/live";
+        writeCollection(liveCollection, 1);
+        for (String name : deleted) Files.delete(Paths.get(liveCollection, name));
+        Files.write(Paths.get(liveCollection, docName(200)), html(updated).getBytes(StandardCharsets.UTF_8));
+        new DiskIndexBuilder().build(liveCollection, folder + "/live-index");
+        Index reference = new DiskIndex(folder + "/live-index");
+
+        String segmented = folder + "/segmented";
+        deleteTree(new File(segmented));
+        SegmentedIndexBuilder builder = new SegmentedIndexBuilder();
+        builder.setMaxBufferedDocs(37);
+        builder.setMergeFactor(3);
+        builder.build(collection, segmented);
+        builder.waitForMerges();
+        String prefix = new File(collection).getAbsolutePath() + File.separator;
+        for (String name : deleted) builder.deleteDocument(prefix + name);
+        builder.updateDocument(prefix + docName(200), updated);
+        // Added and deleted in the same commit
+        builder.indexText("buffered then deleted", prefix + "buffered.html");
+        builder.deleteDocument(prefix + "buffered.html");
+        builder.commit();
+
+        SegmentedIndex index = new SegmentedIndex(segmented);
+        check(index.numLiveDocs() == reference.numDocs(), "live documents");
+        testNextGEQ(index);
+        for (String query : queries.subList(0, 100))
+            for (SearchRankingDoc doc : new TermBasedVSMEngine(index).search(query, NUM_DOCS)) {
+                String name = new File(doc.getPath()).getName();
+                check(!deleted.contains(name) && !name.equals("buffered.html"), "deleted document ranked", query);
+            }
+
+        builder.forceMerge();
+        builder.close();
+        index = new SegmentedIndex(segmented);
+        check(postingsByName(index).equals(postingsByName(reference)), "merged postings");
+        for (String query : queries) {
+            Map<String,Double> expected = scoresByName(new TermBasedVSMEngine(reference).search(query, NUM_DOCS));
+            Map<String,Double> scores = scoresByName(new TermBasedVSMEngine(index).search(query, NUM_DOCS));
+            check(expected.keySet().equals(scores.keySet()), "merged ranking", query);
+            for (String name : expected.keySet())
+                check(Math.abs(expected.get(name) - scores.get(name)) <= 1e-9 * expected.get(name), "merged score", query);
+        }
+        System.out.println("  Deletions and merges: " + queries.size() + " queries ok");
+    }
+
+    // Sharded and brokered searches against the same search on a single index
+    static void testShards(String collection, String folder, Index disk, List<String> queries) throws IOException {
+        for (int nShards : new int[] {1, 3, 7}) {
+            String path = folder + "/sharded" + nShards;
+            new ShardedIndexBuilder(DiskIndexBuilder::new, nShards).build(collection, path);
+            ShardedIndex sharded = new ShardedIndex(path, DiskIndex::new);
+            check(sharded.numDocs() == disk.numDocs(), "sharded documents");
+            ShardedSearchEngine termBased = new ShardedSearchEngine(sharded, TermBasedVSMEngine::new);
+            ShardedSearchEngine docBased = new ShardedSearchEngine(sharded, DocBasedVSMEngine::new);
+            for (int i = 0; i < queries.size(); i++) {
+                String query = queries.get(i);
+                int cutoff = CUTOFFS[i % CUTOFFS.length];
+                check(dumpPaths(termBased.search(query, cutoff)).equals(dumpPaths(new TermBasedVSMEngine(disk).search(query, cutoff))),
+                        "sharded term-based", query, cutoff);
+                check(dumpPaths(docBased.search(query, cutoff)).equals(dumpPaths(new DocBasedVSMEngine(disk).search(query, cutoff))),
+                        "sharded doc-based", query, cutoff);
+            }
+            termBased.close();
+            docBased.close();
+            testNextGEQ(sharded);
+
+            // The same shards served over sockets, each with its own statistics until the broker sends the global ones
+            ShardServer servers[] = new ShardServer[nShards];
+            InetSocketAddress replicas[][] = new InetSocketAddress[nShards][];
+            for (int i = 0; i < nShards; i++) {
+                servers[i] = new ShardServer(new DiskIndex(sharded.shard(i).getFolder()), 0);
+                replicas[i] = new InetSocketAddress[] {new InetSocketAddress(InetAddress.getLoopbackAddress(), servers[i].getPort())};
+                ShardServer server = servers[i];
+                Thread thread = new Thread(() -> {
+                    try {
+                        server.serve();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+            SearchBroker broker = new SearchBroker(replicas);
+            broker.setTimeout(10000);
+            for (byte engine : new byte[] {ShardProtocol.TERM_BASED, ShardProtocol.DOC_BASED}) {
+                broker.setEngine(engine);
+                SearchEngine reference = engine == ShardProtocol.TERM_BASED? new TermBasedVSMEngine(disk) : new DocBasedVSMEngine(disk);
+                for (String query : queries.subList(0, 100))
+                    check(dumpPaths(broker.search(query, 10)).equals(dumpPaths(reference.search(query, 10))), "broker", query, 10);
+            }
+            broker.close();
+            for (ShardServer server : servers) server.close();
+            System.out.println("  " + nShards + " shards: " + queries.size() + " queries ok, and through a broker");
+        }
+    }
+
+    // Documents of Zipf-distributed words, some of them repeated in bursts for high term frequencies
+    static void writeCollection(String folder, long seed) throws IOException {
+        deleteTree(new File(folder));
+        Files.createDirectories(Paths.get(folder));
+        Random random = new Random(seed);
+        for (int docID = 0; docID < NUM_DOCS; docID++) {
+            StringBuilder text = new StringBuilder();
+            int length = 5 + (int) Math.abs(random.nextGaussian() * 150);
+            for (int i = 0; i < length; i++) {
+                String w = word(zipf(random));
+                int repeat = random.nextInt(20) == 0? 1 + random.nextInt(10) : 1;
+                for (int k = 0; k < repeat; k++) text.append(w).append(' ');
+            }
+            Files.write(Paths.get(folder, docName(docID)), html(text.toString()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Queries of 1 to 6 words, half of them frequent ones, some with a repeated word or one out of the collection
+    static List<String> queries(Index index, long seed) throws IOException {
+        List<String> terms = new ArrayList<String>(index.getAllTerms());
+        Collections.sort(terms);
+        Random random = new Random(seed);
+        List<String> queries = new ArrayList<String>();
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            StringBuilder query = new StringBuilder();
+            int length = 1 + random.nextInt(6);
+            for (int i = 0; i < length; i++) {
+                String term = random.nextBoolean()? word(zipf(random) % 50) : terms.get(random.nextInt(terms.size()));
+                query.append(term).append(' ');
+            }
+            if (random.nextInt(10) == 0) query.append(query.toString().split(" ")[0]).append(' ');
+            if (random.nextInt(20) == 0) query.append("zzzunknown ");
+            queries.add(query.toString().trim());
+        }
+        return queries;
+    }
+
+    static int zipf(Random random) {
+        return (int) Math.min(VOCABULARY - 1, Math.floor(Math.exp(random.nextDouble() * Math.log(VOCABULARY))) - 1);
+    }
+
+    // Terms are runs of letters
+    static String word(int i) {
+        StringBuilder w = new StringBuilder();
+        do {
+            w.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return w.append("x").toString();
+    }
+
+    static String docName(int docID) {
+        return String.format("doc%03d.html", docID);
+    }
+
+    static String html(String text) {
+        return "<html><body>" + text + "</body></html>";
+    }
+
+    static String dump(SearchRanking ranking) throws IOException {
+        StringBuilder str = new StringBuilder();
+        for (SearchRankingDoc doc : ranking) str.append(doc.getDocID()).append(" ").append(doc.getScore()).append(";");
+        return str.toString();
+    }
+
+    static String dumpPaths(SearchRanking ranking) throws IOException {
+        StringBuilder str = new StringBuilder();
+        for (SearchRankingDoc doc : ranking) str.append(doc.getPath()).append(String.format(" %.10f;", doc.getScore()));
+        return str.toString();
+    }
+
+    // Same scores up to the tolerance, and the same documents but for ties, also with the last one in
+    static boolean sameRanking(SearchRanking a, SearchRanking b, double tolerance) throws IOException {
+        List<SearchRankingDoc> docsA = new ArrayList<SearchRankingDoc>(), docsB = new ArrayList<SearchRankingDoc>();
+        for (SearchRankingDoc doc : a) docsA.add(doc);
+        for (SearchRankingDoc doc : b) docsB.add(doc);
+        if (docsA.size() != docsB.size()) return false;
+        Map<Integer,Double> scoresB = new TreeMap<Integer,Double>();
+        for (SearchRankingDoc doc : docsB) scoresB.put(doc.getDocID(), doc.getScore());
+        for (int i = 0; i < docsA.size(); i++) {
+            double score = docsA.get(i).getScore();
+            if (!close(score, docsB.get(i).getScore(), tolerance)) return false;
+            Double other = scoresB.get(docsA.get(i).getDocID());
+            if (other == null? !close(score, docsA.get(docsA.size() - 1).getScore(), tolerance) : !close(score, other, tolerance)) return false;
+        }
+        return true;
+    }
+
+    static boolean close(double x, double y, double tolerance) {
+        return Math.abs(x - y) <= tolerance * Math.abs(x);
+    }
+
+    static Map<String,Double> scoresByName(SearchRanking ranking) throws IOException {
+        Map<String,Double> scores = new TreeMap<String,Double>();
+        for (SearchRankingDoc doc : ranking) scores.put(new File(doc.getPath()).getName(), doc.getScore());
+        return scores;
+    }
+
+    // Term statistics and postings, by document name rather than docID
+    static Map<String,String> postingsByName(Index index) throws IOException {
+        Map<String,String> lists = new TreeMap<String,String>();
+        for (String term : index.getAllTerms()) {
+            List<String> postings = new ArrayList<String>();
+            for (Posting p : index.getPostings(term)) postings.add(new File(index.getDocPath(p.getDocID())).getName() + "/" + p.getFreq());
+            if (postings.isEmpty()) continue;
+            Collections.sort(postings);
+            lists.put(term, index.getDocFreq(term) + " " + index.getTotalFreq(term) + " " + postings);
+        }
+        return lists;
+    }
+
+    static void check(boolean ok, String what, Object... context) {
+        if (ok) return;
+        StringBuilder str = new StringBuilder(what + " differs");
+        for (Object c : context) str.append(" / ").append(c);
+        throw new IllegalStateException(str.toString());
+    }
+
+    static void deleteTree(File f) {
+        File children[] = f.listFiles();
+        if (children != null) for (File child : children) deleteTree(child);
+        f.delete();
+    }
+}
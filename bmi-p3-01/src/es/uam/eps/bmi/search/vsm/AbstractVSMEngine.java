@@ -2,17 +2,40 @@ package es.uam.eps.bmi.search.vsm;
 
 import es.uam.eps.bmi.search.AbstractEngine;
 import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.impl.BlockPostingsList;
 
 /**
  *
  * @author pablo
  */
 public abstract class AbstractVSMEngine extends AbstractEngine {
+    // Covers the rounding of the scores, which are not added in the same order as their bounds
+    static final double BOUND_SLACK = 1 + 1e-9;
+
     public AbstractVSMEngine(Index index) {
         super(index);
     }
     
     public static double tfidf(long freq, long docFreq, int numDocs) {
-        return (1 + Math.log(freq)) * (1 + Math.log(numDocs) - Math.log(1 + docFreq));
+        return tf(freq) * idf(docFreq, numDocs);
+    }
+
+    public static double tf(long freq) {
+        return 1 + Math.log(freq);
+    }
+
+    public static double idf(long docFreq, int numDocs) {
+        return 1 + Math.log(numDocs) - Math.log(1 + docFreq);
+    }
+
+    // Largest tf / document norm of a list written with score bounds (see PostingsCodec), or NaN
+    static double maxTfNorm(PostingsList postings) {
+        if (!(postings instanceof BlockPostingsList)) return Double.NaN;
+        float bounds[] = ((BlockPostingsList) postings).getBlockBounds();
+        if (bounds == null) return Double.NaN;
+        float max = 0;
+        for (float b : bounds) max = Math.max(max, b);
+        return max;
     }
 }
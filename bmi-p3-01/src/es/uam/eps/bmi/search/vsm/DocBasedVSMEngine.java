@@ -1,25 +1,54 @@
 package es.uam.eps.bmi.search.vsm;
 
+import es.uam.eps.bmi.search.Deadline;
 import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.impl.DiskIndex;
 import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import es.uam.eps.bmi.search.index.structure.impl.BlockPostingsList;
 import es.uam.eps.bmi.search.ranking.SearchRanking;
 import es.uam.eps.bmi.search.ranking.impl.RankingImpl;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.PriorityQueue;
 
 /**
+ * With pruning on, documents that cannot enter the ranking are skipped with
+ * Block-Max WAND, using the score bounds that DiskIndexBuilder writes for each
+ * block of postings. Rankings are the same as without pruning, but nResults
+ * only counts the documents actually scored.
+ *
+ * With a deadline, the search stops between documents once it runs out, so
+ * the ranking only has documents up to some docID, with their whole scores.
  *
  * @author pablo
  */
 public class DocBasedVSMEngine extends AbstractVSMEngine {
+    boolean pruning = false;
 
     public DocBasedVSMEngine(Index index) {
         super(index);
     }
+
+    public void setPruning(boolean p) {
+        pruning = p;
+    }
     
     public SearchRanking search(String q, int cutoff) throws IOException {
+        return search(q, cutoff, null);
+    }
+
+    public SearchRanking search(String q, int cutoff, Deadline deadline) throws IOException {
         String query[] = parse(q);
+        // Bounds are relative to the norms of the index they were written with
+        if (pruning && index instanceof DiskIndex) {
+            RankingImpl ranking = searchPruned(query, cutoff, deadline);
+            if (ranking != null) return ranking;
+        }
         RankingImpl ranking = new RankingImpl(index, cutoff);
         Iterator<Posting> postingsLists[] = new Iterator[query.length];
         long docFreqs[] = new long[query.length];
@@ -29,20 +58,29 @@ public class DocBasedVSMEngine extends AbstractVSMEngine {
             docFreqs[i] = index.getDocFreq(query[i]);
             if (docFreqs[i] > 0) {
                 postingsLists[i] = index.getPostings(query[i]).iterator();
-                cosineHeap.add(new QueryPosting(postingsLists[i].next(), i));
+                // Lists may be left empty by deleted documents
+                if (postingsLists[i].hasNext()) cosineHeap.add(new QueryPosting(postingsLists[i].next(), i));
             }
         }
+        if (cosineHeap.isEmpty()) return ranking;
         int numDocs = index.numDocs();
         
         int currentDocID = cosineHeap.peek().posting.getDocID();
         double score = 0;
+        int nPostings = 0;
         while (!cosineHeap.isEmpty()) {
             QueryPosting qp = cosineHeap.poll();
             if (qp.posting.getDocID() != currentDocID) {
                 ranking.add(currentDocID, score / index.getDocNorm(currentDocID));
+                if (deadline != null && deadline.consume(nPostings)) {
+                    ranking.setApproximate(true);
+                    return ranking;
+                }
                 score = 0;
+                nPostings = 0;
                 currentDocID = qp.posting.getDocID();
             }
+            nPostings++;
             score += tfidf(qp.posting.getFreq(), docFreqs[qp.qi], numDocs);
             if (postingsLists[qp.qi].hasNext()) {
                 qp.posting = postingsLists[qp.qi].next();
@@ -54,6 +92,131 @@ public class DocBasedVSMEngine extends AbstractVSMEngine {
         return ranking;
     }
 
+    // Block-Max WAND over cursors kept sorted by current docID; null if some list has no bounds
+    RankingImpl searchPruned(String query[], int cutoff, Deadline deadline) throws IOException {
+        int numDocs = index.numDocs();
+        List<Cursor> open = new ArrayList<Cursor>();
+        for (int i = 0; i < query.length; i++) {
+            long docFreq = index.getDocFreq(query[i]);
+            if (docFreq == 0) continue;
+            PostingsList postings = index.getPostings(query[i]);
+            if (Double.isNaN(maxTfNorm(postings))) return null;
+            Cursor c = new Cursor((BlockPostingsList) postings, i, docFreq, numDocs);
+            if (c.posting != null) open.add(c);
+        }
+        RankingImpl ranking = new RankingImpl(index, cutoff);
+        Cursor cursors[] = open.toArray(new Cursor[open.size()]);
+        Cursor matching[] = new Cursor[cursors.length];
+        int n = cursors.length;
+        Arrays.sort(cursors);
+
+        while (n > 0) {
+            double threshold = ranking.threshold();
+            // Pivot: first cursor where the bounds of the terms up to it may exceed the threshold
+            int p = 0;
+            double bound = cursors[0].maxScore;
+            while (bound <= threshold && ++p < n) bound += cursors[p].maxScore;
+            if (p == n) break;
+            int pivotDoc = cursors[p].docID();
+            while (p + 1 < n && cursors[p + 1].docID() == pivotDoc) p++;
+
+            // Documents from the pivot to the end of the first block ending, or to the next cursor, have the same block bounds
+            double blockBound = 0;
+            int blockEnd = Integer.MAX_VALUE;
+            for (int i = 0; i <= p; i++) {
+                blockBound += cursors[i].blockBound(pivotDoc);
+                blockEnd = Math.min(blockEnd, cursors[i].blockEnd());
+            }
+            if (blockBound <= threshold) {
+                int next = blockEnd == Integer.MAX_VALUE? Integer.MAX_VALUE : blockEnd + 1;
+                if (p + 1 < n) next = Math.min(next, cursors[p + 1].docID());
+                for (int i = 0; i <= p; i++) cursors[i].advance(next);
+            }
+            else if (cursors[0].docID() == pivotDoc) {
+                // Terms are added in query order, as in the exhaustive search
+                for (int i = 0; i <= p; i++) {
+                    int j = i;
+                    for (; j > 0 && matching[j - 1].qi > cursors[i].qi; j--) matching[j] = matching[j - 1];
+                    matching[j] = cursors[i];
+                }
+                double score = 0;
+                for (int i = 0; i <= p; i++) score += tfidf(matching[i].posting.getFreq(), matching[i].docFreq, numDocs);
+                ranking.add(pivotDoc, score / index.getDocNorm(pivotDoc));
+                for (int i = 0; i <= p; i++) cursors[i].next();
+            }
+            else for (int i = 0; cursors[i].docID() < pivotDoc; i++) cursors[i].advance(pivotDoc);
+
+            n = sort(cursors, p + 1, n);
+            if (deadline != null && n > 0 && deadline.consume(p + 1)) {
+                ranking.setApproximate(true);
+                break;
+            }
+        }
+        return ranking;
+    }
+
+    // Puts back in order the first moved cursors, returning the number of them not exhausted
+    static int sort(Cursor cursors[], int moved, int n) {
+        for (int i = moved - 1; i >= 0; i--) {
+            Cursor c = cursors[i];
+            int j = i;
+            for (; j + 1 < n && cursors[j + 1].docID() < c.docID(); j++) cursors[j] = cursors[j + 1];
+            cursors[j] = c;
+        }
+        while (n > 0 && cursors[n - 1].posting == null) n--;
+        return n;
+    }
+
+    static class Cursor implements Comparable<Cursor> {
+        PostingsListIterator postings;
+        Posting posting;
+        int qi;
+        long docFreq;
+        double idf;
+        double maxScore;
+        int lastDocs[];
+        float bounds[];
+        // Block of the last document the bounds were asked for
+        int block;
+
+        Cursor(BlockPostingsList list, int i, long df, int numDocs) {
+            postings = list.iterator();
+            qi = i;
+            docFreq = df;
+            idf = idf(df, numDocs);
+            lastDocs = list.getBlockLastDocs();
+            bounds = list.getBlockBounds();
+            maxScore = maxTfNorm(list) * idf * BOUND_SLACK;
+            next();
+        }
+
+        int docID() {
+            return posting == null? Integer.MAX_VALUE : posting.getDocID();
+        }
+
+        void next() {
+            posting = postings.hasNext()? postings.next() : null;
+        }
+
+        void advance(int docID) {
+            posting = docID == Integer.MAX_VALUE? null : postings.nextGEQ(docID);
+        }
+
+        // Bound of the score of the term in the block that would hold docID, which never decreases
+        double blockBound(int docID) {
+            while (block < lastDocs.length && lastDocs[block] < docID) block++;
+            return block == lastDocs.length? 0 : bounds[block] * idf * BOUND_SLACK;
+        }
+
+        int blockEnd() {
+            return block == lastDocs.length? Integer.MAX_VALUE : lastDocs[block];
+        }
+
+        public int compareTo(Cursor c) {
+            return Integer.compare(docID(), c.docID());
+        }
+    }
+
     class QueryPosting implements Comparable<QueryPosting> {
         Posting posting;
         int qi;
@@ -63,8 +226,10 @@ public class DocBasedVSMEngine extends AbstractVSMEngine {
             qi = i;
         }
 
+        // Postings of the same document in query order, so that scores are always added in the same order
         public int compareTo(QueryPosting qp) {
-            return posting.getDocID() - qp.posting.getDocID();
+            if (posting.getDocID() != qp.posting.getDocID()) return posting.getDocID() - qp.posting.getDocID();
+            return qi - qp.qi;
         }
     }
 }
@@ -0,0 +1,183 @@
+package es.uam.eps.bmi.search.vsm;
+
+import es.uam.eps.bmi.search.Deadline;
+import es.uam.eps.bmi.search.index.impl.ImpactIndex;
+import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
+import es.uam.eps.bmi.search.index.structure.impl.ImpactList;
+import es.uam.eps.bmi.search.index.structure.impl.ImpactsFile;
+import es.uam.eps.bmi.search.ranking.SearchRanking;
+import es.uam.eps.bmi.search.ranking.impl.RankingImpl;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Score-at-a-time search over the impact-ordered lists of an ImpactIndex. The
+ * segments of all the query terms are processed by decreasing impact, adding
+ * their impacts to the accumulators of their documents, until the top k
+ * documents cannot change: the k-th accumulator is above the next one by more
+ * than the impacts of the segments that come next in each term. The cost
+ * depends on the impacts of the terms rather than on the length of their
+ * lists. Since impacts are rounded up, the k-th accumulator has to be ahead
+ * by one more impact per term, so that no document left out can score above
+ * one ranked. The documents that can still make the top k are then scored
+ * exactly from the postings, as in the other VSM engines; nResults is the
+ * number of documents scored.
+ *
+ * With a deadline, the search may stop before the top k cannot change, and
+ * then ranks the top k accumulators, marking the ranking as approximate.
+ *
+ * @author pablo
+ */
+public class ImpactVSMEngine extends AbstractVSMEngine {
+    ImpactIndex impactIndex;
+
+    public ImpactVSMEngine(ImpactIndex index) {
+        super(index);
+        impactIndex = index;
+    }
+
+    public SearchRanking search(String q, int cutoff) throws IOException {
+        return search(q, cutoff, null);
+    }
+
+    public SearchRanking search(String q, int cutoff, Deadline deadline) throws IOException {
+        String query[] = parse(q);
+        RankingImpl ranking = new RankingImpl(index, cutoff);
+        if (cutoff == 0) return ranking;
+
+        Buffers buffers = Buffers.get(index.numDocs());
+        ImpactList lists[] = new ImpactList[query.length];
+        // Segments as (LEVELS - impact, term, segment), so that sorting them puts the highest impacts first and keeps
+        // the segments of each term in order
+        int nSegments = 0;
+        // Next segment of each term, and the sum of their impacts: the most a document can still gain
+        int next[] = new int[query.length];
+        int remaining = 0;
+        int nTerms = 0;
+        int maxSize = 0;
+        for (int i = 0; i < query.length; i++) {
+            lists[i] = impactIndex.getImpacts(query[i]);
+            if (lists[i] == null) continue;
+            nTerms++;
+            buffers.segments = grow(buffers.segments, nSegments + lists[i].numSegments());
+            for (int s = 0; s < lists[i].numSegments(); s++) {
+                buffers.segments[nSegments++] = (long) (ImpactsFile.LEVELS - lists[i].impact(s)) << 40 | (long) i << 20 | s;
+                maxSize = Math.max(maxSize, lists[i].size(s));
+            }
+            remaining += lists[i].impact(0);
+        }
+        long segments[] = buffers.segments;
+        Arrays.sort(segments, 0, nSegments);
+
+        if (buffers.docIDs.length < maxSize) buffers.docIDs = new int[maxSize];
+        if (buffers.counts.length < remaining + 1) buffers.counts = new int[remaining + 1];
+        int docIDs[] = buffers.docIDs;
+        int counts[] = buffers.counts;
+        int nCounts = remaining + 1;
+        int acc[] = buffers.acc;
+        int kth = 0;
+        // Postings added since the last check, which costs a pass over the accumulators
+        long added = 0;
+        for (int seg = 0; seg < nSegments; seg++) {
+            int impact = ImpactsFile.LEVELS - (int) (segments[seg] >>> 40);
+            int qi = (int) (segments[seg] >>> 20) & 0xFFFFF;
+            int s = (int) segments[seg] & 0xFFFFF;
+            ImpactList list = lists[qi];
+            int n = list.size(s);
+            list.decode(s, docIDs);
+            for (int i = 0; i < n; i++) {
+                if (acc[docIDs[i]] == 0) buffers.touch(docIDs[i]);
+                acc[docIDs[i]] += impact;
+            }
+            next[qi]++;
+            remaining -= impact;
+            if (next[qi] < list.numSegments()) remaining += list.impact(next[qi]);
+
+            added += n;
+            boolean expired = deadline != null && deadline.consume(n);
+            if (added < buffers.nTouched && remaining > 0 && !expired) continue;
+            added = 0;
+            // k-th and (k+1)-th accumulators, from the number of accumulators with each value
+            Arrays.fill(counts, 0, nCounts, 0);
+            for (int i = 0; i < buffers.nTouched; i++) counts[acc[buffers.touched[i]]]++;
+            int rank = 0, following = 0;
+            kth = 0;
+            for (int value = nCounts - 1; value > 0 && rank <= cutoff; value--) {
+                if (rank < cutoff && rank + counts[value] >= cutoff) kth = value;
+                if (rank + counts[value] > cutoff && following == 0) following = value;
+                rank += counts[value];
+            }
+            // Impacts are rounded up by less than one each, so the exact scores of the top k documents can be up to
+            // nTerms below their accumulators, while no document can get above its accumulator plus remaining
+            if (remaining == 0 || kth - nTerms > following + remaining) break;
+            if (expired) {
+                ranking.setApproximate(true);
+                break;
+            }
+        }
+
+        // The documents that can still reach the lowest exact score of the top k accumulators, in docID order, or
+        // the top k accumulators if the ranking is approximate; the k-th accumulator only falls short of cutoff
+        // documents when others tie with it
+        int min = ranking.isApproximate()? kth : kth - nTerms - remaining + 1;
+        int candidates[] = new int[buffers.nTouched];
+        int n = 0;
+        for (int i = 0; i < buffers.nTouched; i++)
+            if (acc[buffers.touched[i]] >= min) candidates[n++] = buffers.touched[i];
+        buffers.clear();
+        Arrays.sort(candidates, 0, n);
+
+        // Exact scores, adding terms in query order as DocBasedVSMEngine does
+        double scores[] = new double[n];
+        int numDocs = index.numDocs();
+        for (int i = 0; i < query.length; i++) {
+            if (lists[i] == null) continue;
+            long docFreq = index.getDocFreq(query[i]);
+            PostingsListIterator postings = index.getPostings(query[i]).iterator();
+            Posting p = null;
+            for (int c = 0; c < n; c++) {
+                if (p == null || p.getDocID() < candidates[c]) p = postings.nextGEQ(candidates[c]);
+                if (p == null) break;
+                if (p.getDocID() == candidates[c]) scores[c] += tfidf(p.getFreq(), docFreq, numDocs);
+            }
+        }
+        for (int c = 0; c < n; c++)
+            ranking.add(candidates[c], scores[c] / index.getDocNorm(candidates[c]));
+        return ranking;
+    }
+
+    static long[] grow(long array[], int size) {
+        return array.length < size? Arrays.copyOf(array, Math.max(size, 2 * array.length)) : array;
+    }
+
+    // Per-thread buffers of a search, reused across queries, with the accumulators of the documents touched
+    static class Buffers {
+        static final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+        long segments[] = new long[64];
+        int docIDs[] = new int[0];
+        int counts[] = new int[0];
+        int acc[] = new int[0];
+        int touched[] = new int[64];
+        int nTouched;
+
+        // Also clears what a query left, if it was interrupted before clear()
+        static Buffers get(int numDocs) {
+            Buffers b = buffers.get();
+            b.clear();
+            if (b.acc.length < numDocs) b.acc = new int[numDocs];
+            return b;
+        }
+
+        void touch(int docID) {
+            if (nTouched == touched.length) touched = Arrays.copyOf(touched, 2 * nTouched);
+            touched[nTouched++] = docID;
+        }
+
+        void clear() {
+            for (int i = 0; i < nTouched; i++) acc[touched[i]] = 0;
+            nTouched = 0;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package es.uam.eps.bmi.search.vsm;
 
+import es.uam.eps.bmi.search.Deadline;
 import es.uam.eps.bmi.search.index.freq.FreqVector;
 import es.uam.eps.bmi.search.index.ForwardIndex;
 import es.uam.eps.bmi.search.index.Index;
@@ -18,9 +19,18 @@ public class SlowVSMEngine extends AbstractVSMEngine {
     }
     
     public SearchRanking search(String q, int cutoff) throws IOException {
+        return search(q, cutoff, null);
+    }
+
+    // Each document counts as a posting per query term towards the deadline
+    public SearchRanking search(String q, int cutoff, Deadline deadline) throws IOException {
         RankingImpl ranking = new RankingImpl(index, cutoff);
         String query[] = parse(q);
         for (int doc = 0; doc < index.numDocs(); doc++) {
+            if (deadline != null && deadline.consume(query.length)) {
+                ranking.setApproximate(true);
+                break;
+            }
             double score = score(doc, query);
             if (score > Double.NEGATIVE_INFINITY) ranking.add(doc, score);
         }
@@ -1,42 +1,232 @@
 package es.uam.eps.bmi.search.vsm;
 
+import es.uam.eps.bmi.search.Deadline;
 import es.uam.eps.bmi.search.index.Index;
+import es.uam.eps.bmi.search.index.impl.DiskIndex;
 import es.uam.eps.bmi.search.index.impl.SerializedRAMIndex;
 import es.uam.eps.bmi.search.index.structure.Posting;
+import es.uam.eps.bmi.search.index.structure.PostingsList;
+import es.uam.eps.bmi.search.index.structure.PostingsListIterator;
 import es.uam.eps.bmi.search.ranking.SearchRanking;
 import es.uam.eps.bmi.search.ranking.impl.RankingImpl;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
+ * With pruning on, terms are processed by decreasing maximal contribution
+ * (MaxScore), taken from the score bounds that DiskIndexBuilder writes with
+ * the postings. Once the remaining terms together cannot take a document
+ * without an accumulator into the ranking, their postings only update the
+ * existing accumulators, skipping the rest of their lists. The ranking is the
+ * same as without pruning but for the rounding of the scores, which are added
+ * in another order, and nResults only counts the accumulated documents.
+ *
+ * With a deadline, the search stops once it runs out and ranks the documents
+ * by the partial scores accumulated so far.
  *
  * @author pablo
  */
 public class TermBasedVSMEngine extends AbstractVSMEngine {
+    boolean pruning = false;
 
     public TermBasedVSMEngine(Index index) {
         super(index);
     }
+
+    public void setPruning(boolean p) {
+        pruning = p;
+    }
     
     public SearchRanking search(String query, int cutoff) throws IOException {
+        return search(query, cutoff, null);
+    }
+
+    public SearchRanking search(String query, int cutoff, Deadline deadline) throws IOException {
+        // Bounds are relative to the norms of the index they were written with
+        if (pruning && index instanceof DiskIndex) {
+            RankingImpl ranking = searchMaxScore(parse(query), cutoff, deadline);
+            if (ranking != null) return ranking;
+        }
         RankingImpl ranking = new RankingImpl(index, cutoff);
-        Map<Integer,Double> scores = new HashMap<Integer,Double>();
-        for (String q : parse(query))
-            for (Posting p : index.getPostings(q))
-                addScore(scores, p, q);
-        for (int docID : scores.keySet())
-            ranking.add(docID, scores.get(docID) / index.getDocNorm(docID));
+        String terms[] = parse(query);
+        PostingsList lists[] = new PostingsList[terms.length];
+        long maxDocs = 0;
+        for (int i = 0; i < terms.length; i++) {
+            lists[i] = index.getPostings(terms[i]);
+            maxDocs += lists[i].size();
+        }
+        ScoreAccumulator scores = ScoreAccumulator.get(index.numDocs(), maxDocs);
+        terms:
+        for (int i = 0; i < terms.length; i++) {
+            long docFreq = index.getDocFreq(terms[i]);
+            for (Posting p : lists[i]) {
+                addScore(scores, p, docFreq);
+                if (deadline != null && deadline.consume(1)) {
+                    ranking.setApproximate(true);
+                    break terms;
+                }
+            }
+        }
+        rank(scores, ranking);
         return ranking;
     }
     
-    void addScore(Map<Integer,Double> scores, Posting p, String term) throws IOException {
-        int docID = p.getDocID();
-        if (!scores.containsKey(docID)) scores.put(docID, 0.0);
-        scores.put(docID, scores.get(docID) + tfidf(p.getFreq(), index.getDocFreq(term), index.numDocs()));
+    // Null if some list has no score bounds
+    RankingImpl searchMaxScore(String query[], int cutoff, Deadline deadline) throws IOException {
+        int numDocs = index.numDocs();
+        List<QueryTerm> terms = new ArrayList<QueryTerm>();
+        double remaining = 0;
+        long remainingPostings = 0;
+        for (String q : query) {
+            long docFreq = index.getDocFreq(q);
+            if (docFreq == 0) continue;
+            PostingsList postings = index.getPostings(q);
+            double maxTfNorm = maxTfNorm(postings);
+            if (Double.isNaN(maxTfNorm)) return null;
+            QueryTerm term = new QueryTerm(postings, docFreq, maxTfNorm * idf(docFreq, numDocs) * BOUND_SLACK);
+            terms.add(term);
+            remaining += term.maxScore;
+            remainingPostings += postings.size();
+        }
+        terms.sort((a, b) -> Double.compare(b.maxScore, a.maxScore));
+
+        ScoreAccumulator scores = ScoreAccumulator.get(numDocs, remainingPostings);
+        boolean updateOnly = false;
+        // Sorted docIDs of the accumulators, when there are fewer of them than postings left to skip over
+        int candidates[] = null;
+        double processed = 0;
+        // Lower bound of the final threshold: the last score of a ranking of the partial scores of some documents
+        double threshold = cutoff == 0? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        boolean expired = false;
+        TopScores top = new TopScores(cutoff);
+        for (QueryTerm term : terms) {
+            if (expired) break;
+            if (!updateOnly) {
+                remaining -= term.maxScore;
+                processed += term.maxScore;
+                remainingPostings -= term.postings.size();
+                // No partial score reaches the bound of the terms processed, so the threshold is only tracked below it,
+                // ranking the documents of each term, which are each seen once, by their scores so far. Only the
+                // scores above the bound of the remaining terms are ranked, since only those can stop new accumulators
+                boolean ranked = remaining < processed && remaining >= threshold;
+                top.clear();
+                for (Posting p : term.postings) {
+                    double score = addScore(scores, p, term.docFreq);
+                    if (deadline != null && deadline.consume(1)) {
+                        expired = true;
+                        break;
+                    }
+                    if (!ranked) continue;
+                    score /= index.getDocNorm(p.getDocID());
+                    if (score > remaining) top.add(score);
+                }
+                if (ranked && top.isFull()) threshold = Math.max(threshold, top.min());
+                // Strictly below, so that no document left out could tie with the last one in
+                if (!expired && remaining < threshold) {
+                    updateOnly = true;
+                    if (scores.size() < remainingPostings)
+                        candidates = Arrays.copyOf(scores.docIDs(), scores.size());
+                }
+            }
+            else if (candidates == null) {
+                for (Posting p : term.postings) {
+                    if (scores.contains(p.getDocID())) addScore(scores, p, term.docFreq);
+                    if (deadline != null && (expired = deadline.consume(1))) break;
+                }
+            }
+            else {
+                PostingsListIterator postings = term.postings.iterator();
+                Posting p = null;
+                for (int docID : candidates) {
+                    if (p == null || p.getDocID() < docID) p = postings.nextGEQ(docID);
+                    if (p == null) break;
+                    if (p.getDocID() == docID) addScore(scores, p, term.docFreq);
+                    if (deadline != null && (expired = deadline.consume(1))) break;
+                }
+            }
+        }
+
+        RankingImpl ranking = new RankingImpl(index, cutoff);
+        ranking.setApproximate(expired);
+        rank(scores, ranking);
+        return ranking;
+    }
+
+    // Returns the new score of the document
+    double addScore(ScoreAccumulator scores, Posting p, long docFreq) {
+        return scores.add(p.getDocID(), tfidf(p.getFreq(), docFreq, index.numDocs()));
+    }
+
+    // In docID order, which decides among tied scores, and leaves the accumulator cleared
+    void rank(ScoreAccumulator scores, RankingImpl ranking) throws IOException {
+        int docIDs[] = scores.docIDs();
+        for (int i = 0; i < scores.size(); i++)
+            ranking.add(docIDs[i], scores.get(docIDs[i]) / index.getDocNorm(docIDs[i]));
+        scores.clear();
     }
     
     public void loadIndex(String path) throws IOException {
         index = new SerializedRAMIndex(path);
     }
+
+    static class QueryTerm {
+        PostingsList postings;
+        long docFreq;
+        double maxScore;
+
+        QueryTerm(PostingsList p, long df, double max) {
+            postings = p;
+            docFreq = df;
+            maxScore = max;
+        }
+    }
+
+    // The largest scores added, up to cutoff, in a min-heap of doubles
+    static class TopScores {
+        int cutoff;
+        double heap[];
+        int size;
+
+        TopScores(int k) {
+            cutoff = k;
+            heap = new double[Math.min(k, 64)];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isFull() {
+            return size == cutoff;
+        }
+
+        // Only once full
+        double min() {
+            return heap[0];
+        }
+
+        void add(double score) {
+            if (size < cutoff) {
+                if (size == heap.length) heap = Arrays.copyOf(heap, (int) Math.min(cutoff, 2L * size));
+                int k = size++;
+                while (k > 0 && heap[(k - 1) >>> 1] > score) {
+                    heap[k] = heap[(k - 1) >>> 1];
+                    k = (k - 1) >>> 1;
+                }
+                heap[k] = score;
+            }
+            else if (cutoff > 0 && score > heap[0]) {
+                // Replaces the lowest
+                int k = 0;
+                for (int child; (child = 2 * k + 1) < size; k = child) {
+                    if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+                    if (heap[child] >= score) break;
+                    heap[k] = heap[child];
+                }
+                heap[k] = score;
+            }
+        }
+    }
 }